@@ -0,0 +1,240 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// All objects appended to one file, by default git/objects.dat. Each record is
+// id length (short) | id (ASCII hex) | data length (long) | data.
+// The offsets are rebuilt by scanning the file when the store is opened; a
+// record cut short by a crash is truncated away. Appends hold RepoLock on
+// the file, and first scan whatever other stores (in this process or
+// another) appended since, so an object is not stored twice.
+public class AppendObjectStore implements ObjectStore {
+
+    private final File path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    // id -> { data offset, data length }
+    private final HashMap<String, long[]> offsets = new HashMap<String, long[]>();
+    // End of the last record scanned or appended
+    private long scanned = 0;
+
+    public AppendObjectStore() throws IOException {
+        this(new File("git" + File.separator + "objects.dat"));
+    }
+
+    public AppendObjectStore(File path) throws IOException {
+        File parent = path.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        this.path = path;
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = file.getChannel();
+        RepoLock lock = RepoLock.lock(path);
+        try {
+            scan();
+        } finally {
+            lock.release();
+        }
+    }
+
+    // Reads the records after the last one seen. Only called under the
+    // lock, since a short record at the end is taken for a crashed append.
+    private void scan() throws IOException {
+        long pos = scanned;
+        long size = channel.size();
+        ByteBuffer head = ByteBuffer.allocate(2);
+        ByteBuffer len = ByteBuffer.allocate(8);
+        while (pos < size) {
+            head.clear();
+            if (pos + 2 > size) {
+                break;
+            }
+            channel.read(head, pos);
+            int idLen = head.getShort(0) & 0xffff;
+            if (pos + 2 + idLen + 8 > size) {
+                break;
+            }
+            ByteBuffer idBuf = ByteBuffer.allocate(idLen);
+            channel.read(idBuf, pos + 2);
+            len.clear();
+            channel.read(len, pos + 2 + idLen);
+            long dataLen = len.getLong(0);
+            long dataAt = pos + 2 + idLen + 8;
+            if (dataLen < 0 || dataAt + dataLen > size) {
+                break;
+            }
+            String id = new String(idBuf.array(), StandardCharsets.US_ASCII);
+            offsets.put(id, new long[] { dataAt, dataLen });
+            pos = dataAt + dataLen;
+        }
+        if (pos < size) {
+            channel.truncate(pos);
+        }
+        scanned = pos;
+    }
+
+    public synchronized boolean exists(String id) {
+        return offsets.containsKey(id);
+    }
+
+    public synchronized byte[] get(String id) throws IOException {
+        long[] at = offsets.get(id);
+        if (at == null) {
+            return null;
+        }
+        if (at[1] > Integer.MAX_VALUE) {
+            throw new IOException("Object too large to load: " + id);
+        }
+        return ObjectCodec.decode(read(id, at[0], (int) at[1]));
+    }
+
+    // Only the start of the record is read for the header
+    public synchronized String typeOf(String id) throws IOException {
+        long[] at = offsets.get(id);
+        if (at == null) {
+            return null;
+        }
+        byte[] start = read(id, at[0], (int) Math.min(at[1], 512));
+        return ObjectCodec.typeOf(start, start.length);
+    }
+
+    private byte[] read(String id, long pos, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos + buf.position());
+            if (n < 0) {
+                throw new IOException("Truncated object: " + id);
+            }
+        }
+        return buf.array();
+    }
+
+    // Streams the record from the file instead of loading it
+    public InputStream open(String id) throws IOException {
+        long[] at;
+        synchronized (this) {
+            at = offsets.get(id);
+        }
+        if (at == null) {
+            return null;
+        }
+        return ObjectCodec.decode(new RecordStream(channel, at[0], at[0] + at[1]));
+    }
+
+    public synchronized void put(String id, byte[] data) throws IOException {
+        if (offsets.containsKey(id)) {
+            return;
+        }
+        RepoLock lock = RepoLock.lock(path);
+        try {
+            scan();
+            if (!offsets.containsKey(id)) {
+                append(id, data);
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    private void append(String id, byte[] data) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer head = ByteBuffer.allocate(2 + idBytes.length + 8);
+        head.putShort((short) idBytes.length);
+        head.put(idBytes);
+        head.putLong(data.length);
+        head.flip();
+
+        long pos = channel.size();
+        long dataAt = pos + head.remaining();
+        while (head.hasRemaining()) {
+            channel.write(head, pos + head.position());
+        }
+        ByteBuffer body = ByteBuffer.wrap(data);
+        while (body.hasRemaining()) {
+            channel.write(body, dataAt + body.position());
+        }
+        offsets.put(id, new long[] { dataAt, data.length });
+        scanned = dataAt + data.length;
+    }
+
+    public ObjectWriter newWriter() {
+        return new ObjectWriter() {
+            private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+            public void write(int b) {
+                buffer.write(b);
+            }
+
+            public void write(byte[] b, int off, int len) {
+                buffer.write(b, off, len);
+            }
+
+            public void commit(String id) throws IOException {
+                put(id, buffer.toByteArray());
+                buffer = new ByteArrayOutputStream();
+            }
+
+            public void abort() {
+                buffer = new ByteArrayOutputStream();
+            }
+        };
+    }
+
+    public synchronized List<String> list() {
+        return new ArrayList<String>(offsets.keySet());
+    }
+
+    public synchronized void close() throws IOException {
+        channel.force(true);
+        file.close();
+    }
+
+    // The bytes of one record, read with positional reads so several
+    // streams can share the channel
+    private static class RecordStream extends InputStream {
+        private final FileChannel channel;
+        private long pos;
+        private final long end;
+
+        RecordStream(FileChannel channel, long pos, long end) {
+            this.channel = channel;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            if (n == -1) {
+                return -1;
+            }
+            return one[0] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos >= end) {
+                return -1;
+            }
+            int want = (int) Math.min(len, end - pos);
+            int n = channel.read(ByteBuffer.wrap(b, off, want), pos);
+            if (n < 0) {
+                throw new IOException("Truncated object record at " + pos);
+            }
+            pos = pos + n;
+            return n;
+        }
+
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - pos);
+        }
+    }
+}
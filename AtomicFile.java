@@ -0,0 +1,84 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Replaces a file through a temp file in the same directory and a rename,
+// so readers (and a crash) see either the whole old file or the whole new
+// one, never a half-written one. The temp file is forced to disk before the
+// rename and the directory after it, so a power cut cannot leave the new
+// name pointing at missing data.
+public class AtomicFile {
+
+    public static void write(File target, byte[] data) throws IOException {
+        write(target, data, 0, data.length, null);
+    }
+
+    // Writes data then trailer (may be null) as the new contents of target
+    public static void write(File target, byte[] data, int off, int len, byte[] trailer) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        File temp = File.createTempFile("tmp_" + target.getName() + "_", null, dir);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(data, off, len);
+                if (trailer != null) {
+                    out.write(trailer);
+                }
+            } finally {
+                out.close();
+            }
+            replace(temp, target);
+        } finally {
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+
+    // Moves temp over target in one step where the filesystem allows it
+    public static void replace(File temp, File target) throws IOException {
+        force(temp);
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        forceDir(target.getAbsoluteFile().getParentFile());
+    }
+
+    // Flushes a written (and closed) file's contents to the disk
+    public static void force(File f) throws IOException {
+        FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE);
+        try {
+            ch.force(true);
+        } finally {
+            ch.close();
+        }
+    }
+
+    // Makes renames into dir durable. Some platforms (Windows) cannot open
+    // a directory at all; there the rename is still atomic, just not synced.
+    public static void forceDir(File dir) {
+        if (dir == null) {
+            return;
+        }
+        try {
+            FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+            try {
+                ch.force(true);
+            } finally {
+                ch.close();
+            }
+        } catch (IOException e) {
+            // Directory sync not supported here
+        }
+    }
+}
@@ -0,0 +1,311 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Random;
+
+// Times the hot paths on synthetic repositories:
+//   java Benchmark [files] [fileSize] [depth] [store]
+// files/fileSize/depth accept comma-separated lists and every combination
+// is run; store is "loose" (default) or "memory". Works on ./git and
+// ./bench_repo, so run it from a scratch directory: it refuses to start if
+// ./git already exists and removes both when done.
+public class Benchmark {
+
+    private static final int WARMUP = 2;
+    private static final int MEASURE = 5;
+
+    private final int files;
+    private final int fileSize;
+    private final int depth;
+    private final ArrayList<String> paths = new ArrayList<String>();
+
+    public Benchmark(int files, int fileSize, int depth) {
+        this.files = files;
+        this.fileSize = fileSize;
+        this.depth = depth;
+    }
+
+    public static void main(String[] args) {
+        int[] fileCounts = parse(args, 0, "1000");
+        int[] sizes = parse(args, 1, "4096");
+        int[] depths = parse(args, 2, "3");
+        boolean memory = args.length > 3 && args[3].equals("memory");
+
+        if (new File("git").exists()) {
+            System.out.println("./git already exists; run Benchmark from an empty directory");
+            return;
+        }
+        try {
+            int a = 0;
+            while (a < fileCounts.length) {
+                int b = 0;
+                while (b < sizes.length) {
+                    int c = 0;
+                    while (c < depths.length) {
+                        Benchmark bench = new Benchmark(fileCounts[a], sizes[b], depths[c]);
+                        bench.run(memory);
+                        c = c + 1;
+                    }
+                    b = b + 1;
+                }
+                a = a + 1;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            ObjectStores.use(new ObjectCache(new LooseObjectStore()));
+            deleteRecursively(new File("git"));
+            deleteRecursively(new File("bench_repo"));
+        }
+    }
+
+    public void run(boolean memory) throws Exception {
+        System.out.println("files=" + files + " fileSize=" + fileSize + " depth=" + depth
+                + " store=" + (memory ? "memory" : "loose"));
+        generate();
+        long bytes = (long) files * fileSize;
+
+        // Hash throughput of each object format, on file contents already in memory
+        final ArrayList<byte[]> contents = new ArrayList<byte[]>();
+        int c = 0;
+        while (c < paths.size()) {
+            contents.add(Files.readAllBytes(Paths.get(paths.get(c))));
+            c = c + 1;
+        }
+        String[] formats = Hashing.formats();
+        int f = 0;
+        while (f < formats.length) {
+            final MessageDigest md = Hashing.newDigest(formats[f]);
+            report("hash " + formats[f], bytes, time(new Task() {
+                public void run() {
+                    int i = 0;
+                    while (i < contents.size()) {
+                        md.digest(contents.get(i));
+                        i = i + 1;
+                    }
+                }
+            }, memory, false));
+            f = f + 1;
+        }
+
+        report("Blob.createBlobFromPath raw", bytes, time(new Task() {
+            public void setUp() {
+                Blob.COMPRESS = false;
+            }
+
+            public void run() throws Exception {
+                int i = 0;
+                while (i < paths.size()) {
+                    Blob.createBlobFromPath(paths.get(i));
+                    i = i + 1;
+                }
+            }
+        }, memory, true));
+
+        report("Blob.createBlobFromPath compressed", bytes, time(new Task() {
+            public void setUp() {
+                Blob.COMPRESS = true;
+            }
+
+            public void run() throws Exception {
+                int i = 0;
+                while (i < paths.size()) {
+                    Blob.createBlobFromPath(paths.get(i));
+                    i = i + 1;
+                }
+            }
+        }, memory, true));
+        Blob.COMPRESS = false;
+
+        report("Index.add per file", bytes, time(new Task() {
+            public void run() throws Exception {
+                Index idx = new Index();
+                int i = 0;
+                while (i < paths.size()) {
+                    idx.add(paths.get(i));
+                    i = i + 1;
+                }
+            }
+        }, memory, true));
+
+        report("Index.addAll", bytes, time(new Task() {
+            public void run() throws Exception {
+                new Index().addAll(paths);
+            }
+        }, memory, true));
+
+        report("Tree.createTree serial", bytes, time(new Task() {
+            public void run() throws Exception {
+                new Tree().createTree("bench_repo");
+            }
+        }, memory, true));
+
+        final int cores = Math.max(2, Runtime.getRuntime().availableProcessors());
+        report("Tree.createTree parallel(" + cores + ")", bytes, time(new Task() {
+            public void run() throws Exception {
+                new Tree(cores).createTree("bench_repo");
+            }
+        }, memory, true));
+
+        // WorkingList only reads the index, so stage everything once. Each
+        // iteration first rewrites and restages one file, outside the clock,
+        // so both builds write the same new trees along its path. The cold
+        // build has no git/index.tree; the incremental one has it from the
+        // previous build.
+        reset(memory);
+        new Index().addAll(paths);
+        final File cacheTree = new File("git" + File.separator + "index.tree");
+        final Random r = new Random(files);
+        report("WorkingList.build cold (1 path changed)", bytes, time(new Task() {
+            public void setUp() throws Exception {
+                restageOne(r);
+                cacheTree.delete();
+            }
+
+            public void run() throws Exception {
+                new WorkingList().build();
+            }
+        }, memory, false));
+
+        report("WorkingList.build incremental (1 path changed)", bytes, time(new Task() {
+            public void setUp() throws Exception {
+                new WorkingList().build();
+                restageOne(r);
+            }
+
+            public void run() throws Exception {
+                new WorkingList().build();
+            }
+        }, memory, false));
+
+        final int threads = cores;
+        report("Verify(" + threads + ")", bytes, time(new Task() {
+            public void run() throws Exception {
+                new Verify(threads, null).run();
+            }
+        }, memory, false));
+        System.out.println();
+    }
+
+    // Something to time; setUp runs before each iteration, outside the clock
+    private abstract static class Task {
+        public void setUp() throws Exception {
+        }
+
+        public abstract void run() throws Exception;
+    }
+
+    // Average milliseconds over MEASURE runs after WARMUP runs. With
+    // resetEach set, every run starts from an empty object store and index.
+    private double time(Task task, boolean memory, boolean resetEach) throws Exception {
+        long total = 0;
+        int i = 0;
+        while (i < WARMUP + MEASURE) {
+            if (resetEach == true) {
+                reset(memory);
+            }
+            task.setUp();
+            long start = System.nanoTime();
+            task.run();
+            long took = System.nanoTime() - start;
+            if (i >= WARMUP) {
+                total = total + took;
+            }
+            i = i + 1;
+        }
+        return total / 1e6 / MEASURE;
+    }
+
+    // Gives a random file new contents and adds it to the index
+    private void restageOne(Random r) throws IOException {
+        String path = paths.get(r.nextInt(paths.size()));
+        byte[] data = new byte[fileSize];
+        r.nextBytes(data);
+        FileOutputStream out = new FileOutputStream(path);
+        out.write(data);
+        out.close();
+        new Index().add(path);
+    }
+
+    private void reset(boolean memory) {
+        if (memory == true) {
+            ObjectStores.use(new MemoryObjectStore());
+        } else {
+            ObjectStores.use(new ObjectCache(new LooseObjectStore()));
+        }
+        Index idx = new Index();
+        idx.resetObjects();
+        idx.clearIndex();
+        new File("git" + File.separator + "index.stat").delete();
+        new File("git" + File.separator + "index.tree").delete();
+    }
+
+    private void report(String name, long bytes, double ms) {
+        double perSecond = files / (ms / 1000.0);
+        double mbPerSecond = bytes / (1024.0 * 1024.0) / (ms / 1000.0);
+        System.out.println(String.format("  %-48s %10.2f ms %12.0f files/s %10.1f MB/s", name, ms, perSecond, mbPerSecond));
+    }
+
+    // files spread over a tree of directories `depth` levels deep, 4 per level
+    private void generate() throws IOException {
+        deleteRecursively(new File("bench_repo"));
+        paths.clear();
+        Random r = new Random(files * 31L + fileSize * 7L + depth);
+        byte[] data = new byte[fileSize];
+        int i = 0;
+        while (i < files) {
+            StringBuilder dir = new StringBuilder("bench_repo");
+            int n = i;
+            int d = 0;
+            while (d < depth) {
+                dir.append("/d").append(n % 4);
+                n = n / 4;
+                d = d + 1;
+            }
+            File parent = new File(dir.toString());
+            if (!parent.exists()) {
+                parent.mkdirs();
+            }
+            r.nextBytes(data);
+            String path = dir + "/f" + i + ".bin";
+            FileOutputStream out = new FileOutputStream(path);
+            out.write(data);
+            out.close();
+            paths.add(path);
+            i = i + 1;
+        }
+    }
+
+    private static int[] parse(String[] args, int at, String fallback) {
+        String s = fallback;
+        if (args.length > at) {
+            s = args[at];
+        }
+        String[] parts = s.split(",");
+        int[] out = new int[parts.length];
+        int i = 0;
+        while (i < parts.length) {
+            out[i] = Integer.parseInt(parts[i].trim());
+            i = i + 1;
+        }
+        return out;
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            File[] kids = f.listFiles();
+            if (kids != null) {
+                int i = 0;
+                while (i < kids.length) {
+                    deleteRecursively(kids[i]);
+                    i = i + 1;
+                }
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,298 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+// Binary version of git/index:
+//   "BIDX" | version (int) | entry count (int) | id length (byte)
+//   entry offsets (int each, sorted by path)
+//   entries: raw id bytes | path length (unsigned short) | UTF-8 path
+//   SHA-1 of everything above (20 bytes)
+public class BinaryIndex {
+
+    private static final byte[] MAGIC = { 'B', 'I', 'D', 'X' };
+    private static final int VERSION = 1;
+    private static final int HEADER = 13;
+    private static final int CHECKSUM = 20;
+
+    private static final HashMap<String, BinaryIndex> opened = new HashMap<String, BinaryIndex>();
+
+    private final MappedByteBuffer buf;
+    private final int count;
+    private final int idLen;
+
+    private BinaryIndex(MappedByteBuffer buf, int count, int idLen) {
+        this.buf = buf;
+        this.count = count;
+        this.idLen = idLen;
+    }
+
+    public static boolean isBinary(File file) throws IOException {
+        if (!file.isFile() || file.length() < MAGIC.length) {
+            return false;
+        }
+        FileInputStream in = new FileInputStream(file);
+        byte[] head = new byte[MAGIC.length];
+        int n = in.read(head);
+        in.close();
+        if (n != MAGIC.length) {
+            return false;
+        }
+        int i = 0;
+        while (i < MAGIC.length) {
+            if (head[i] != MAGIC[i]) {
+                return false;
+            }
+            i = i + 1;
+        }
+        return true;
+    }
+
+    // Writes "<sha1> <path>" lines in the binary format, sorted by path
+    public static void write(File file, List<String> lines) throws IOException {
+        ArrayList<byte[][]> entries = new ArrayList<byte[][]>();
+        int idLen = -1;
+        int i = 0;
+        while (i < lines.size()) {
+            String line = lines.get(i);
+            int space = line.indexOf(' ');
+            if (space != -1) {
+                String hex = line.substring(0, space);
+                if (!Hex.isHex(hex)) {
+                    throw new IOException("Bad object id in index: " + hex);
+                }
+                byte[] id = Hex.decode(hex);
+                byte[] path = line.substring(space + 1).getBytes(StandardCharsets.UTF_8);
+                if (idLen == -1) {
+                    idLen = id.length;
+                }
+                if (id.length != idLen) {
+                    throw new IOException("Mixed object id lengths in index");
+                }
+                if (path.length > 0xffff) {
+                    throw new IOException("Path too long for index: " + line.substring(space + 1));
+                }
+                entries.add(new byte[][] { id, path });
+            }
+            i = i + 1;
+        }
+        if (idLen == -1) {
+            idLen = 20;
+        }
+        Collections.sort(entries, new Comparator<byte[][]>() {
+            public int compare(byte[][] a, byte[][] b) {
+                return compareBytes(a[1], b[1]);
+            }
+        });
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        out.writeByte(idLen);
+
+        int offset = HEADER + 4 * entries.size();
+        i = 0;
+        while (i < entries.size()) {
+            out.writeInt(offset);
+            offset = offset + idLen + 2 + entries.get(i)[1].length;
+            i = i + 1;
+        }
+        i = 0;
+        while (i < entries.size()) {
+            byte[][] e = entries.get(i);
+            out.write(e[0]);
+            out.writeShort(e[1].length);
+            out.write(e[1]);
+            i = i + 1;
+        }
+        out.flush();
+
+        byte[] body = bytes.toByteArray();
+        AtomicFile.write(file, body, 0, body.length, Hashing.checksum(body, 0, body.length));
+    }
+
+    public static BinaryIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer buf;
+        try {
+            FileChannel ch = raf.getChannel();
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } finally {
+            raf.close();
+        }
+
+        int size = buf.capacity();
+        if (size < HEADER + CHECKSUM) {
+            throw new IOException("Index too short: " + file.getPath());
+        }
+        int i = 0;
+        while (i < MAGIC.length) {
+            if (buf.get(i) != MAGIC[i]) {
+                throw new IOException("Not a binary index: " + file.getPath());
+            }
+            i = i + 1;
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IOException("Unsupported index version: " + buf.getInt(4));
+        }
+
+        // Digest the mapping itself; copying the body out first would cost
+        // a second pass over the file
+        MessageDigest md = Hashing.newSha1();
+        ByteBuffer body = buf.duplicate();
+        body.position(0);
+        body.limit(size - CHECKSUM);
+        md.update(body);
+        byte[] expected = md.digest();
+        i = 0;
+        while (i < CHECKSUM) {
+            if (buf.get(size - CHECKSUM + i) != expected[i]) {
+                throw new IOException("Index checksum mismatch: " + file.getPath());
+            }
+            i = i + 1;
+        }
+
+        int count = buf.getInt(8);
+        int idLen = buf.get(12) & 0xff;
+        return new BinaryIndex(buf, count, idLen);
+    }
+
+    // The opened index for file, reused as long as the file ends with the
+    // same checksum, so repeated lookups cost one small read instead of a
+    // map and a full checksum each. Entries never change under an opened
+    // index: a rewrite goes through a rename, and the old mapping stays.
+    public static BinaryIndex cached(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        byte[] trailer = readTrailer(file);
+        if (trailer != null) {
+            synchronized (opened) {
+                BinaryIndex b = opened.get(key);
+                if (b != null && Arrays.equals(b.trailer(), trailer)) {
+                    return b;
+                }
+            }
+        }
+        BinaryIndex b = open(file);
+        synchronized (opened) {
+            opened.put(key, b);
+        }
+        return b;
+    }
+
+    // Last CHECKSUM bytes of file, or null if it is too short to have them
+    private static byte[] readTrailer(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length < HEADER + CHECKSUM) {
+                return null;
+            }
+            byte[] b = new byte[CHECKSUM];
+            raf.seek(length - CHECKSUM);
+            raf.readFully(b);
+            return b;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private byte[] trailer() {
+        byte[] b = new byte[CHECKSUM];
+        buf.get(buf.capacity() - CHECKSUM, b);
+        return b;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String pathAt(int i) {
+        int off = buf.getInt(HEADER + 4 * i) + idLen;
+        int len = buf.getShort(off) & 0xffff;
+        byte[] b = new byte[len];
+        buf.get(off + 2, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    public String shaAt(int i) {
+        int off = buf.getInt(HEADER + 4 * i);
+        byte[] b = new byte[idLen];
+        buf.get(off, b);
+        return Hex.encode(b);
+    }
+
+    // Binary search on the sorted entries; returns the sha1 or null
+    public String lookup(String path) {
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = comparePathAt(mid, key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return shaAt(mid);
+            }
+        }
+        return null;
+    }
+
+    public List<String> lines() {
+        ArrayList<String> out = new ArrayList<String>(count);
+        int i = 0;
+        while (i < count) {
+            out.add(shaAt(i) + " " + pathAt(i));
+            i = i + 1;
+        }
+        return out;
+    }
+
+    private int comparePathAt(int i, byte[] key) {
+        int off = buf.getInt(HEADER + 4 * i) + idLen;
+        int len = buf.getShort(off) & 0xffff;
+        off = off + 2;
+        int n = Math.min(len, key.length);
+        int j = 0;
+        while (j < n) {
+            int a = buf.get(off + j) & 0xff;
+            int b = key[j] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+            j = j + 1;
+        }
+        return len - key.length;
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < n) {
+            int x = a[i] & 0xff;
+            int y = b[i] & 0xff;
+            if (x != y) {
+                return x - y;
+            }
+            i = i + 1;
+        }
+        return a.length - b.length;
+    }
+}
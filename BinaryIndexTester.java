@@ -0,0 +1,127 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class BinaryIndexTester {
+
+    public static void main(String[] args) {
+        try {
+            makeFile("b1.txt", "one\n");
+            makeFile("bdir/b2.txt", "two\n");
+            makeFile("bdir/sub/b3.txt", "three\n");
+
+            Index.BINARY = false;
+            Index idx = new Index();
+            idx.clearIndex();
+            ArrayList<String> paths = new ArrayList<String>();
+            paths.add("bdir/sub/b3.txt");
+            paths.add("b1.txt");
+            paths.add("bdir/b2.txt");
+            idx.addAll(paths);
+
+            List<String> textLines = idx.entries();
+            String textRoot = new WorkingList().build();
+
+            // Migrate the text index to the binary format
+            Index.BINARY = true;
+            idx.convert();
+            File indexFile = new File("git" + File.separator + "index");
+            if (BinaryIndex.isBinary(indexFile)) {
+                System.out.println("Index converted to binary: PASS");
+            } else {
+                System.out.println("Index converted to binary: FAIL");
+            }
+
+            ArrayList<String> sorted = new ArrayList<String>(textLines);
+            Collections.sort(sorted, new Comparator<String>() {
+                public int compare(String a, String b) {
+                    return a.substring(a.indexOf(' ') + 1).compareTo(b.substring(b.indexOf(' ') + 1));
+                }
+            });
+            if (idx.entries().equals(sorted)) {
+                System.out.println("Binary entries sorted and complete: PASS");
+            } else {
+                System.out.println("Binary entries sorted and complete: FAIL");
+            }
+
+            boolean found = true;
+            int i = 0;
+            while (i < textLines.size()) {
+                String line = textLines.get(i);
+                String path = line.substring(line.indexOf(' ') + 1);
+                String sha = line.substring(0, line.indexOf(' '));
+                if (!sha.equals(idx.lookup(path))) {
+                    found = false;
+                }
+                i = i + 1;
+            }
+            if (idx.lookup("missing.txt") != null) {
+                found = false;
+            }
+            if (found == true) {
+                System.out.println("Binary search lookup: PASS");
+            } else {
+                System.out.println("Binary search lookup: FAIL");
+            }
+
+            if (new WorkingList().build().equals(textRoot)) {
+                System.out.println("Tree from binary index: PASS");
+            } else {
+                System.out.println("Tree from binary index: FAIL");
+            }
+
+            // Lookups share one opened index until the file changes
+            BinaryIndex first = BinaryIndex.cached(indexFile);
+            boolean reused = BinaryIndex.cached(indexFile) == first;
+            makeFile("b4.txt", "four\n");
+            idx.add("b4.txt");
+            BinaryIndex second = BinaryIndex.cached(indexFile);
+            reused = reused && second != first && second.size() == first.size() + 1
+                    && idx.lookup("b4.txt") != null && BinaryIndex.cached(indexFile) == second;
+            if (reused == true) {
+                System.out.println("Opened index reused until changed: PASS");
+            } else {
+                System.out.println("Opened index reused until changed: FAIL");
+            }
+
+            // Flip one byte and the checksum must catch it
+            RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+            raf.seek(20);
+            int b = raf.read();
+            raf.seek(20);
+            raf.write(b ^ 0xff);
+            raf.close();
+            boolean caught = false;
+            try {
+                BinaryIndex.open(indexFile);
+            } catch (Exception e) {
+                caught = true;
+            }
+            if (caught == true) {
+                System.out.println("Checksum detects corruption: PASS");
+            } else {
+                System.out.println("Checksum detects corruption: FAIL");
+            }
+
+            Index.BINARY = false;
+            idx.clearIndex();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void makeFile(String name, String content) throws Exception {
+        File f = new File(name);
+        if (f.getParentFile() != null) {
+            f.getParentFile().mkdirs();
+        }
+        FileWriter w = new FileWriter(f, false);
+        w.write(content);
+        w.flush();
+        w.close();
+    }
+}
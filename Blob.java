@@ -1,16 +1,40 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.zip.Deflater;
 
 public class Blob {
 
-    // Toggle for compression
+    // Toggle for compression (see ObjectCodec for the format)
     public static boolean COMPRESS = false;
 
-    public static String sha1FromFile(File file) throws IOException {
+    // zlib level for compressed blobs, 0 (none) to 9 (smallest)
+    public static int LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+    // Uncompressed files at least this big are hashed through a memory map
+    // and copied into the store by the OS (FileChannel.transferTo)
+    public static long LARGE_FILE = 1024 * 1024;
+
+    // Toggle for chunked blobs: files at least CHUNKED_FILE bytes are split
+    // by a Chunker, each chunk is its own object, and the file's id is that
+    // of a Manifest listing them. A small edit to a big file then only
+    // stores the chunks around it.
+    public static boolean CHUNK = false;
+    public static long CHUNKED_FILE = 1024 * 1024;
+
+    public static String hashFile(File file) throws IOException {
         if (file == null) {
             throw new IOException("File is null");
         }
@@ -21,128 +45,291 @@ public class Blob {
             throw new IOException("Not a file: " + file.getPath());
         }
 
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-1 not available");
-        }
-
-        FileInputStream in = new FileInputStream(file);
-        byte[] buffer = new byte[8192];
-        int read;
-        while (true) {
-            read = in.read(buffer);
-            if (read == -1) {
-                break;
-            }
-            md.update(buffer, 0, read);
-        }
-        in.close();
-
-        byte[] digest = md.digest();
-        String hex = toHex(digest);
-        return hex;
+        return Hashing.hash(file);
     }
 
     public static String createBlobFromPath(String sourcePath) throws IOException {
-        File source = new File(sourcePath);
+        return createBlobFromPath(sourcePath, null);
+    }
 
-        File gitDir = new File("git");
-        if (!gitDir.exists()) {
-            gitDir.mkdir();
+    // Same, counting chunks into stats (may be null) when the file is chunked
+    public static String createBlobFromPath(String sourcePath, ChunkStats stats) throws IOException {
+        File source = new File(sourcePath);
+        if (!source.exists()) {
+            throw new IOException("File not found: " + source.getPath());
+        }
+        if (!source.isFile()) {
+            throw new IOException("Not a file: " + source.getPath());
         }
 
-        File objectsDir = new File(gitDir, "objects");
-        if (!objectsDir.exists()) {
-            objectsDir.mkdir();
+        if (CHUNK == true && source.length() >= CHUNKED_FILE) {
+            return chunked(source, stats, true);
         }
 
-        String hash;
+        if (COMPRESS == false && source.length() >= LARGE_FILE) {
+            String hash = storeLarge(source);
+            if (hash != null) {
+                return hash;
+            }
+        }
 
-        if (COMPRESS == true) {
-            // Read file
-            byte[] raw = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(sourcePath));
+        MessageDigest md = Hashing.newDigest();
 
-            // Compress
-            java.util.zip.Deflater deflater = new java.util.zip.Deflater();
-            deflater.setInput(raw);
-            deflater.finish();
+        // Hash and stream into the object store in the same pass; the store
+        // keeps the bytes under the hash or drops them if it already has it
+        ObjectWriter writer = ObjectStores.get().newWriter();
+        Deflater deflater = null;
+        try {
+            FileInputStream file = new FileInputStream(source);
+            long size = file.getChannel().size();
+            PushbackInputStream peek = new PushbackInputStream(file, 2);
+            InputStream in = new DigestInputStream(peek, md);
+            OutputStream out = writer;
+            try {
+                // Content that starts like a zlib stream is always stored
+                // compressed, so readers never mistake raw bytes for it
+                if (COMPRESS == true || startsLikeZlib(peek)) {
+                    deflater = ObjectCodec.deflater(LEVEL);
+                    out = ObjectCodec.compress(writer, "blob", size, deflater);
+                }
+                long copied = copy(in, out);
+                if (copied != size) {
+                    throw new IOException("File changed while being stored: " + source.getPath());
+                }
+            } finally {
+                out.close();
+                in.close();
+            }
 
-            byte[] buffer = new byte[1024];
-            java.io.ByteArrayOutputStream compressedOut = new java.io.ByteArrayOutputStream();
-            while (!deflater.finished()) {
-                int count = deflater.deflate(buffer);
-                compressedOut.write(buffer, 0, count);
+            String hash = Hex.encode(md.digest());
+            writer.commit(hash);
+            return hash;
+        } finally {
+            if (deflater != null) {
+                ObjectCodec.release(deflater);
             }
-            deflater.end();
+            writer.abort();
+        }
+    }
 
-            byte[] compressed = compressedOut.toByteArray();
+    private static boolean startsLikeZlib(PushbackInputStream in) throws IOException {
+        byte[] two = new byte[2];
+        int n = 0;
+        while (n < 2) {
+            int r = in.read(two, n, 2 - n);
+            if (r == -1) {
+                break;
+            }
+            n = n + r;
+        }
+        in.unread(two, 0, n);
+        return n == 2 && ObjectCodec.isZlibHeader(two[0] & 0xff, two[1] & 0xff);
+    }
 
-            // Hash compressed data
-            hash = sha1OfBytes(compressed);
+    // Hashes the file from a memory map first, so a file the store already
+    // has is never copied, then lets the OS copy it into the store. Returns
+    // null if the file changed in between, for the caller to stream it.
+    private static String storeLarge(File source) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            long modified = source.lastModified();
+            ByteBuffer two = ByteBuffer.allocate(2);
+            channel.read(two, 0);
+            if (ObjectCodec.isZlibHeader(two.get(0) & 0xff, two.get(1) & 0xff)) {
+                // Has to be stored compressed; see createBlobFromPath
+                return null;
+            }
+            String hash = Hashing.hash(channel);
 
-            // Save compressed data as blob
-            File blobFile = new File(objectsDir, hash);
-            if (!blobFile.exists()) {
-                FileOutputStream out = new FileOutputStream(blobFile);
-                out.write(compressed);
-                out.flush();
-                out.close();
+            ObjectStore store = ObjectStores.get();
+            if (store.exists(hash)) {
+                return hash;
             }
-        } else {
-            // No compression
-            hash = sha1FromFile(source);
-            File blobFile = new File(objectsDir, hash);
-            if (!blobFile.exists()) {
-                writeRawCopy(source, blobFile);
+            ObjectWriter writer = store.newWriter();
+            try {
+                writer.transferFrom(channel, 0, size);
+                writer.close();
+                if (channel.size() != size || source.lastModified() != modified) {
+                    return null;
+                }
+                writer.commit(hash);
+                return hash;
+            } finally {
+                writer.abort();
             }
+        } finally {
+            in.close();
         }
+    }
 
+    // Splits the file into chunks and returns the id of its manifest. With
+    // store set, chunks the store does not have yet and the manifest are
+    // written; otherwise only the ids are worked out.
+    private static String chunked(File source, ChunkStats stats, boolean store) throws IOException {
+        ObjectStore objects = ObjectStores.get();
+        Manifest manifest = new Manifest();
+        FileInputStream in = new FileInputStream(source);
+        try {
+            long size = in.getChannel().size();
+            Chunker chunker = new Chunker(in);
+            byte[] chunk = chunker.next();
+            while (chunk != null) {
+                String id = Hashing.hash(chunk);
+                if (store == true) {
+                    boolean stored = false;
+                    if (!objects.exists(id)) {
+                        objects.put(id, encode(chunk));
+                        stored = true;
+                    }
+                    if (stats != null) {
+                        stats.addChunk(chunk.length, stored);
+                    }
+                }
+                manifest.add(id, chunk.length);
+                chunk = chunker.next();
+            }
+            if (manifest.size() != size) {
+                throw new IOException("File changed while being stored: " + source.getPath());
+            }
+        } finally {
+            in.close();
+        }
+        byte[] data = manifest.toBytes();
+        String hash = Hashing.hash(data);
+        if (store == true) {
+            objects.put(hash, manifest.encode(LEVEL));
+            if (stats != null) {
+                stats.addFile();
+            }
+        }
         return hash;
     }
 
-    private static void writeRawCopy(File source, File target) throws IOException {
-        FileInputStream in = new FileInputStream(source);
-        FileOutputStream out = new FileOutputStream(target);
-        byte[] buffer = new byte[8192];
-        int read;
-        while (true) {
-            read = in.read(buffer);
-            if (read == -1) {
+    // Stored form of an in-memory blob, compressed if it has to be
+    private static byte[] encode(byte[] content) throws IOException {
+        if (COMPRESS == true || (content.length >= 2 && ObjectCodec.isZlibHeader(content[0] & 0xff, content[1] & 0xff))) {
+            return ObjectCodec.encode("blob", content, LEVEL);
+        }
+        return content;
+    }
+
+    // The id createBlobFromPath would give the file, without storing
+    // anything. Compressed or not, that is the hash of the content, or of
+    // its manifest if the file would be chunked.
+    public static String hashOf(String sourcePath) throws IOException {
+        File source = new File(sourcePath);
+        if (CHUNK == true && source.isFile() && source.length() >= CHUNKED_FILE) {
+            return chunked(source, null, false);
+        }
+        return hashFile(source);
+    }
+
+    // Contents of the file with this id, put back together from its chunks
+    // if it is a manifest; null if the store does not have it
+    public static byte[] readContent(String id) throws IOException {
+        ObjectStore store = ObjectStores.get();
+        byte[] data = store.get(id);
+        Manifest m = Manifest.of(store, id, data);
+        if (m == null) {
+            return data;
+        }
+        if (m.size() > Integer.MAX_VALUE) {
+            throw new IOException("Too large to read into memory: " + id);
+        }
+        byte[] out = new byte[(int) m.size()];
+        int off = 0;
+        int i = 0;
+        while (i < m.count()) {
+            byte[] chunk = store.get(m.id(i));
+            if (chunk == null || chunk.length != m.size(i)) {
+                throw new IOException("Missing or damaged chunk " + m.id(i) + " of " + id);
+            }
+            System.arraycopy(chunk, 0, out, off, chunk.length);
+            off = off + chunk.length;
+            i = i + 1;
+        }
+        return out;
+    }
+
+    // Stream over the contents of the file with this id; chunks of a
+    // manifest are opened one at a time. Null if the store does not have it.
+    public static InputStream openContent(String id) throws IOException {
+        final ObjectStore store = ObjectStores.get();
+        InputStream in = store.open(id);
+        if (in == null) {
+            return null;
+        }
+        // Manifests are small, so peeking at the start is cheap
+        PushbackInputStream peek = new PushbackInputStream(in, 9);
+        byte[] head = new byte[9];
+        int n = 0;
+        while (n < head.length) {
+            int r = peek.read(head, n, head.length - n);
+            if (r == -1) {
                 break;
             }
-            out.write(buffer, 0, read);
+            n = n + r;
+        }
+        peek.unread(head, 0, n);
+        if (n < head.length || !new String(head, 0, n, "UTF-8").equals("manifest ")) {
+            return peek;
         }
-        out.flush();
-        out.close();
-        in.close();
+        // A file that only reads like a manifest is streamed as is
+        if (!Manifest.TYPE.equals(store.typeOf(id))) {
+            return peek;
+        }
+        byte[] data = readAll(peek);
+        final Manifest m = Manifest.parse(data);
+        if (m == null) {
+            return new ByteArrayInputStream(data);
+        }
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next = 0;
+
+            public boolean hasMoreElements() {
+                return next < m.count();
+            }
+
+            public InputStream nextElement() {
+                String chunk = m.id(next);
+                next = next + 1;
+                try {
+                    InputStream c = store.open(chunk);
+                    if (c == null) {
+                        throw new UncheckedIOException(new IOException("Missing chunk " + chunk));
+                    }
+                    return c;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
     }
 
-    private static String sha1OfBytes(byte[] data) {
-        MessageDigest md;
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-            md = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-1 not available");
+            copy(in, out);
+        } finally {
+            in.close();
         }
-        md.update(data, 0, data.length);
-        byte[] digest = md.digest();
-        return toHex(digest);
+        return out.toByteArray();
     }
 
-    private static String toHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        int i = 0;
-        while (i < bytes.length) {
-            int v = bytes[i] & 0xff;
-            String h = Integer.toHexString(v);
-            if (h.length() == 1) {
-                sb.append('0');
+    private static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        int read;
+        while (true) {
+            read = in.read(buffer);
+            if (read == -1) {
+                break;
             }
-            sb.append(h);
-            i = i + 1;
+            out.write(buffer, 0, read);
+            total = total + read;
         }
-        return sb.toString();
+        return total;
     }
 }
@@ -0,0 +1,144 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+// Last built tree of each directory in the index, kept in git/index.tree so
+// WorkingList.build only rebuilds directories that changed. The first line
+// is the SHA-1 of the git/index bytes the entries belong to; the rest are
+// "<tree sha1> <entry count> <dir>" (the root directory is an empty name).
+// Index clears the entries above every path it changes, and the whole cache
+// is ignored if git/index was changed some other way.
+public class CacheTree {
+
+    private final File file;
+    private String stamp;
+    // dir -> { tree sha1, number of index entries under it }
+    private final HashMap<String, String[]> dirs = new HashMap<String, String[]>();
+    private boolean dirty = false;
+
+    public CacheTree(File file) {
+        this.file = file;
+    }
+
+    public static CacheTree load() throws IOException {
+        CacheTree tree = new CacheTree(new File("git" + File.separator + "index.tree"));
+        tree.read();
+        return tree;
+    }
+
+    private void read() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            stamp = br.readLine();
+            String line = br.readLine();
+            while (line != null) {
+                String[] parts = line.split(" ", 3);
+                if (parts.length == 3) {
+                    dirs.put(parts[2], new String[] { parts[0], parts[1] });
+                }
+                line = br.readLine();
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    // SHA-1 of the index file's bytes, or of nothing if there is no index
+    public static String stampOf(File index) throws IOException {
+        if (index.exists()) {
+            return Hashing.sha1(index);
+        }
+        return Hashing.sha1(new byte[0]);
+    }
+
+    public boolean matches(String indexStamp) {
+        return stamp != null && stamp.equals(indexStamp);
+    }
+
+    public boolean exists() {
+        return file.exists();
+    }
+
+    public String shaOf(String dir) {
+        String[] e = dirs.get(dir);
+        if (e == null) {
+            return null;
+        }
+        return e[0];
+    }
+
+    public int countOf(String dir) {
+        String[] e = dirs.get(dir);
+        if (e == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(e[1]);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    public void put(String dir, String sha, int count) {
+        String[] old = dirs.get(dir);
+        if (old != null && old[0].equals(sha) && old[1].equals(Integer.toString(count))) {
+            return;
+        }
+        dirs.put(dir, new String[] { sha, Integer.toString(count) });
+        dirty = true;
+    }
+
+    public void remove(String dir) {
+        if (dirs.remove(dir) != null) {
+            dirty = true;
+        }
+    }
+
+    public void clear() {
+        if (dirs.size() > 0) {
+            dirty = true;
+        }
+        dirs.clear();
+    }
+
+    // Drops every directory that contains path, up to and including the root
+    public void invalidate(String path) {
+        String dir = path;
+        while (true) {
+            int slash = dir.lastIndexOf('/');
+            if (slash == -1) {
+                remove("");
+                return;
+            }
+            dir = dir.substring(0, slash);
+            remove(dir);
+        }
+    }
+
+    public void save(String indexStamp) throws IOException {
+        if (dirty == false && indexStamp.equals(stamp)) {
+            return;
+        }
+        ArrayList<String> names = new ArrayList<String>(dirs.keySet());
+        Collections.sort(names);
+        StringBuilder sb = new StringBuilder();
+        sb.append(indexStamp).append("\n");
+        int i = 0;
+        while (i < names.size()) {
+            String[] e = dirs.get(names.get(i));
+            sb.append(e[0] + " " + e[1] + " " + names.get(i) + "\n");
+            i = i + 1;
+        }
+        AtomicFile.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+        stamp = indexStamp;
+        dirty = false;
+    }
+}
@@ -0,0 +1,395 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Writes the files of a root tree (e.g. a commit's) back into the working
+// directory. Tree objects are read on the calling thread and each file is
+// handed to a pool as soon as its entry is read, which checks it against
+// the working directory while the rest of the tree is still being walked.
+//
+// A file is skipped when it already holds the tree's content, going by
+// git/index.stat (or, if the stat data changed, by hashing it). A file that
+// holds something else is only overwritten if that is what git/index has
+// for it; otherwise it has changes that are not staged (or is not tracked
+// at all), and the whole checkout is refused before anything is written,
+// like git's "would be overwritten", unless it is forced.
+//
+// Files are written through a temp file and a rename. A blob stored as a
+// plain loose object is copied with FileChannel.transferTo, so the bytes
+// go from file to file in the kernel; compressed, packed and chunked blobs
+// are streamed. The index and stat cache get every file in one update at
+// the end, so a later add or status does not reread them.
+//
+// Files in the working directory that are not in the tree are left alone.
+public class Checkout {
+
+    private static final int SKIP = 0;
+    private static final int WRITE = 1;
+    private static final int CONFLICT = 2;
+
+    private final int parallelism;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong copied = new AtomicLong();
+
+    public Checkout() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public Checkout(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1 || (args.length > 1 && !args[1].equals("--force"))) {
+            System.out.println("Usage: java Checkout <tree> [--force]");
+            return;
+        }
+        try {
+            Checkout c = new Checkout();
+            c.checkout(args[0], args.length > 1);
+            System.out.println(c);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void checkout(String treeSha) throws IOException {
+        checkout(treeSha, false);
+    }
+
+    // With force set, files with changes that are not staged are
+    // overwritten instead of refusing the checkout
+    public void checkout(String treeSha, final boolean force) throws IOException {
+        new Index().ensureStructure();
+        final StatCache stats = StatCache.load();
+        final Map<String, String> index = readIndex();
+        final ArrayList<String> paths = new ArrayList<String>();
+        final ArrayList<String> ids = new ArrayList<String>();
+        final ArrayList<String> writePaths = new ArrayList<String>();
+        final ArrayList<String> writeIds = new ArrayList<String>();
+        final ArrayList<String> conflicts = new ArrayList<String>();
+        final ArrayList<IOException> errors = new ArrayList<IOException>();
+
+        final ExecutorService checks = Executors.newFixedThreadPool(parallelism);
+        try {
+            walk(treeSha, "", new Visitor() {
+                public void file(final String path, final String id) {
+                    checks.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                int action = check(path, id, index.get(path), stats);
+                                synchronized (paths) {
+                                    paths.add(path);
+                                    ids.add(id);
+                                    if (action == CONFLICT && force == false) {
+                                        conflicts.add(path);
+                                    } else if (action != SKIP) {
+                                        writePaths.add(path);
+                                        writeIds.add(id);
+                                    }
+                                }
+                            } catch (IOException e) {
+                                synchronized (errors) {
+                                    errors.add(e);
+                                }
+                            }
+                        }
+                    });
+                }
+            });
+        } finally {
+            finish(checks);
+        }
+        if (errors.size() > 0) {
+            throw errors.get(0);
+        }
+        if (conflicts.size() > 0) {
+            Collections.sort(conflicts);
+            throw new IOException("Checkout would overwrite changes that are not staged: " + conflicts);
+        }
+        skipped.addAndGet(paths.size() - writePaths.size());
+
+        ExecutorService writers = Executors.newFixedThreadPool(parallelism);
+        try {
+            int i = 0;
+            while (i < writePaths.size()) {
+                final String path = writePaths.get(i);
+                final String id = writeIds.get(i);
+                writers.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            restore(path, id, stats);
+                        } catch (IOException e) {
+                            synchronized (errors) {
+                                errors.add(e);
+                            }
+                        }
+                    }
+                });
+                i = i + 1;
+            }
+        } finally {
+            finish(writers);
+        }
+        if (errors.size() > 0) {
+            throw errors.get(0);
+        }
+        new Index().merge(paths, ids, stats);
+    }
+
+    private static void finish(ExecutorService pool) throws IOException {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Checkout interrupted");
+        }
+    }
+
+    // Called for every file entry of a tree, in tree order
+    private interface Visitor {
+        void file(String path, String id) throws IOException;
+    }
+
+    private void walk(String treeSha, String dir, Visitor visitor) throws IOException {
+        byte[] data = ObjectStores.get().get(treeSha);
+        if (data == null) {
+            throw new IOException("Tree not found: " + treeSha);
+        }
+        String text = new String(data, StandardCharsets.UTF_8);
+        if (text.length() == 0) {
+            return;
+        }
+        String[] lines = text.split("\n");
+        int i = 0;
+        while (i < lines.length) {
+            String[] parts = lines[i].split(" ", 3);
+            if (parts.length != 3) {
+                throw new IOException("Bad tree entry in " + treeSha + ": " + lines[i]);
+            }
+            String path = child(dir, parts[2]);
+            checkSafe(path);
+            if (parts[0].equals("tree")) {
+                walk(parts[1], path, visitor);
+            } else if (parts[0].equals("blob")) {
+                visitor.file(path, parts[1]);
+            } else {
+                throw new IOException("Bad tree entry in " + treeSha + ": " + lines[i]);
+            }
+            i = i + 1;
+        }
+    }
+
+    // SKIP if the file already holds id, WRITE if it is missing or holds
+    // what git/index has for it (staged), CONFLICT if it holds anything else
+    private int check(String path, String id, String staged, StatCache stats) throws IOException {
+        File target = new File(path);
+        if (!target.exists()) {
+            return WRITE;
+        }
+        if (!target.isFile()) {
+            return CONFLICT;
+        }
+        BasicFileAttributes attrs = Files.readAttributes(target.toPath(), BasicFileAttributes.class);
+        String known;
+        synchronized (stats) {
+            known = stats.lookup(path, attrs);
+        }
+        if (known == null) {
+            known = Blob.hashOf(path);
+            if (known.equals(id)) {
+                synchronized (stats) {
+                    stats.record(path, known, attrs);
+                }
+            }
+        }
+        if (known.equals(id)) {
+            return SKIP;
+        }
+        if (known.equals(staged)) {
+            return WRITE;
+        }
+        return CONFLICT;
+    }
+
+    private void restore(String path, String id, StatCache stats) throws IOException {
+        File target = new File(path);
+        File dir = target.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Cannot create directory: " + dir.getPath());
+        }
+        File temp = File.createTempFile("tmp_" + target.getName() + "_", null, dir);
+        try {
+            long n = copyRaw(id, temp);
+            if (n < 0) {
+                n = copyStream(id, temp);
+            }
+            AtomicFile.replace(temp, target);
+            bytes.addAndGet(n);
+            written.incrementAndGet();
+        } finally {
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+        BasicFileAttributes attrs = Files.readAttributes(target.toPath(), BasicFileAttributes.class);
+        synchronized (stats) {
+            stats.record(path, id, attrs);
+        }
+    }
+
+    // Zero-copy from a plain loose object; -1 if the object is not one.
+    // Manifests are always stored compressed, so a plain object is never one.
+    private long copyRaw(String id, File temp) throws IOException {
+        File raw = ObjectStores.get().rawFile(id);
+        if (raw == null) {
+            return -1;
+        }
+        FileInputStream in = new FileInputStream(raw);
+        try {
+            FileChannel src = in.getChannel();
+            long size = src.size();
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                FileChannel dst = out.getChannel();
+                long position = 0;
+                while (position < size) {
+                    long n = src.transferTo(position, size - position, dst);
+                    if (n <= 0) {
+                        throw new IOException("Short copy of object " + id);
+                    }
+                    position = position + n;
+                }
+            } finally {
+                out.close();
+            }
+            copied.incrementAndGet();
+            return size;
+        } finally {
+            in.close();
+        }
+    }
+
+    private long copyStream(String id, File temp) throws IOException {
+        InputStream in = Blob.openContent(id);
+        if (in == null) {
+            throw new IOException("Blob not found: " + id);
+        }
+        long total = 0;
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[65536];
+                int read = in.read(buffer);
+                while (read != -1) {
+                    out.write(buffer, 0, read);
+                    total = total + read;
+                    read = in.read(buffer);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return total;
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    // Files copied with transferTo, a subset of getWritten
+    public long getZeroCopied() {
+        return copied.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public String toString() {
+        return written.get() + " files written (" + copied.get() + " zero-copy, " + bytes.get() + " bytes), "
+                + skipped.get() + " unchanged";
+    }
+
+    // A tree must not write outside the working directory
+    private static void checkSafe(String path) throws IOException {
+        if (path.length() == 0 || path.startsWith("/")) {
+            throw new IOException("Unsafe path in tree: " + path);
+        }
+        String[] segs = path.split("/");
+        int i = 0;
+        while (i < segs.length) {
+            if (segs[i].equals("..") || segs[i].equals(".") || segs[i].length() == 0 || (i == 0 && segs[i].equals("git"))) {
+                throw new IOException("Unsafe path in tree: " + path);
+            }
+            i = i + 1;
+        }
+    }
+
+    private static Map<String, String> readIndex() throws IOException {
+        List<String> lines = new Index().entries();
+        HashMap<String, String> out = new HashMap<String, String>();
+        int i = 0;
+        while (i < lines.size()) {
+            String line = lines.get(i);
+            int space = line.indexOf(' ');
+            if (space != -1) {
+                out.put(line.substring(space + 1), line.substring(0, space));
+            }
+            i = i + 1;
+        }
+        return out;
+    }
+
+    // Trees from WorkingList name entries by basename, trees from
+    // Tree.createTree by their whole path
+    private static String child(String dir, String name) {
+        if (name.indexOf('/') != -1 || dir.length() == 0) {
+            return normalize(name);
+        }
+        return dir + "/" + name;
+    }
+
+    private static String normalize(String p) {
+        String s = p.replace('\\', '/');
+        if (s.startsWith("./")) {
+            s = s.substring(2);
+        }
+        if (s.equals(".")) {
+            s = "";
+        }
+        while (s.endsWith("/")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return s;
+    }
+}
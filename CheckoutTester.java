@@ -0,0 +1,170 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+public class CheckoutTester {
+
+    public static void main(String[] args) {
+        try {
+            deleteRecursively(new File("git"));
+            deleteRecursively(new File("coproj"));
+            ObjectStores.clearCache();
+            new Git().initializeRepository();
+
+            Random r = new Random(5);
+            byte[] big = new byte[2 * 1024 * 1024];
+            r.nextBytes(big);
+            writeFile("coproj/a.txt", "a\n".getBytes(StandardCharsets.UTF_8));
+            writeFile("coproj/lib/b.txt", "b\n".getBytes(StandardCharsets.UTF_8));
+            writeFile("coproj/lib/deep/c.txt", "c\n".getBytes(StandardCharsets.UTF_8));
+            writeFile("coproj/big.bin", big);
+            String tree = new Tree().createTree("coproj");
+
+            // everything comes back from a full-path tree
+            deleteRecursively(new File("coproj"));
+            Checkout c = new Checkout(4);
+            c.checkout(tree);
+            Index idx = new Index();
+            boolean restored = same("coproj/a.txt", "a\n") && same("coproj/lib/deep/c.txt", "c\n")
+                    && Arrays.equals(Files.readAllBytes(new File("coproj/big.bin").toPath()), big)
+                    && c.getWritten() == 4 && c.getZeroCopied() == 4 && c.getBytes() == big.length + 6
+                    && idx.entries().size() == 4 && idx.lookup("coproj/lib/b.txt").equals(Blob.hashOf("coproj/lib/b.txt"));
+            if (restored == true) {
+                System.out.println("Checkout restores files and index: PASS");
+            } else {
+                System.out.println("Checkout restores files and index: FAIL " + c);
+            }
+
+            // a second checkout finds nothing to do
+            Checkout again = new Checkout(4);
+            again.checkout(tree);
+            if (again.getWritten() == 0 && again.getSkipped() == 4) {
+                System.out.println("Unchanged files skipped: PASS");
+            } else {
+                System.out.println("Unchanged files skipped: FAIL " + again);
+            }
+
+            // an edit that is not staged stops the checkout before anything
+            // is written, unless it is forced
+            writeFile("coproj/lib/b.txt", "changed\n".getBytes(StandardCharsets.UTF_8));
+            new File("coproj/a.txt").delete();
+            boolean stopped = false;
+            try {
+                new Checkout(4).checkout(tree);
+            } catch (IOException e) {
+                stopped = e.getMessage().indexOf("coproj/lib/b.txt") != -1;
+            }
+            boolean untouched = same("coproj/lib/b.txt", "changed\n") && !new File("coproj/a.txt").exists();
+            Checkout fix = new Checkout(4);
+            fix.checkout(tree, true);
+            if (stopped == true && untouched == true && fix.getWritten() == 2 && same("coproj/lib/b.txt", "b\n")) {
+                System.out.println("Unstaged changes refused unless forced: PASS");
+            } else {
+                System.out.println("Unstaged changes refused unless forced: FAIL " + fix);
+            }
+
+            // a staged edit is the user's to lose: checkout puts the tree back
+            writeFile("coproj/lib/b.txt", "staged\n".getBytes(StandardCharsets.UTF_8));
+            new Index().add("coproj/lib/b.txt");
+            Checkout staged = new Checkout(4);
+            staged.checkout(tree);
+            if (staged.getWritten() == 1 && same("coproj/lib/b.txt", "b\n")) {
+                System.out.println("Staged files overwritten: PASS");
+            } else {
+                System.out.println("Staged files overwritten: FAIL " + staged);
+            }
+
+            // the root tree of the index brings back whole paths
+            String built = new WorkingList().buildRoot();
+            deleteRecursively(new File("coproj/lib"));
+            Checkout fromIndex = new Checkout(2);
+            fromIndex.checkout(built);
+            final ArrayList<String> changes = new ArrayList<String>();
+            new Status(2).workingVsIndex("coproj", new Status.Listener() {
+                public void changed(char kind, String path) {
+                    changes.add(kind + " " + path);
+                }
+            });
+            if (fromIndex.getWritten() == 2 && same("coproj/lib/deep/c.txt", "c\n") && changes.size() == 0) {
+                System.out.println("Checkout of an index tree: PASS");
+            } else {
+                System.out.println("Checkout of an index tree: FAIL " + fromIndex + " " + changes);
+            }
+
+            // compressed and chunked blobs are streamed back
+            Blob.COMPRESS = true;
+            Blob.CHUNK = true;
+            writeFile("coproj/big.bin", big);
+            writeFile("coproj/z.txt", "zipped\n".getBytes(StandardCharsets.UTF_8));
+            String packed = new Tree().createTree("coproj");
+            Blob.COMPRESS = false;
+            Blob.CHUNK = false;
+            deleteRecursively(new File("coproj"));
+            Checkout streamed = new Checkout(4);
+            streamed.checkout(packed);
+            if (Arrays.equals(Files.readAllBytes(new File("coproj/big.bin").toPath()), big) && same("coproj/z.txt", "zipped\n")
+                    && streamed.getZeroCopied() < streamed.getWritten()) {
+                System.out.println("Compressed and chunked blobs: PASS");
+            } else {
+                System.out.println("Compressed and chunked blobs: FAIL " + streamed);
+            }
+
+            // a tree cannot write outside the working directory
+            String blob = Blob.createBlobFromPath("coproj/a.txt");
+            String evil = "blob " + blob + " ../escaped.txt";
+            String evilTree = Hashing.hash(evil);
+            ObjectStores.get().put(evilTree, evil.getBytes(StandardCharsets.UTF_8));
+            boolean refused = false;
+            try {
+                new Checkout(1).checkout(evilTree);
+            } catch (IOException e) {
+                refused = true;
+            }
+            if (refused == true && !new File("../escaped.txt").exists()) {
+                System.out.println("Unsafe paths refused: PASS");
+            } else {
+                System.out.println("Unsafe paths refused: FAIL");
+            }
+
+            deleteRecursively(new File("coproj"));
+            deleteRecursively(new File("git"));
+        } catch (Exception e) {
+            Blob.COMPRESS = false;
+            Blob.CHUNK = false;
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean same(String path, String content) throws Exception {
+        return new String(Files.readAllBytes(new File(path).toPath()), StandardCharsets.UTF_8).equals(content);
+    }
+
+    private static void writeFile(String name, byte[] content) throws Exception {
+        File f = new File(name);
+        if (f.getParentFile() != null) {
+            f.getParentFile().mkdirs();
+        }
+        FileOutputStream out = new FileOutputStream(f, false);
+        out.write(content);
+        out.close();
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            File[] kids = f.listFiles();
+            if (kids != null) {
+                int i = 0;
+                while (i < kids.length) {
+                    deleteRecursively(kids[i]);
+                    i = i + 1;
+                }
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Deduplication counts for one ingest (an Index.addAll, a createTree, ...)
+// of chunked blobs. Safe to update from many threads.
+public class ChunkStats {
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong chunks = new AtomicLong();
+    private final AtomicLong newChunks = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong newBytes = new AtomicLong();
+
+    public void addFile() {
+        files.incrementAndGet();
+    }
+
+    // One chunk of size bytes; stored is false if the store already had it
+    public void addChunk(long size, boolean stored) {
+        chunks.incrementAndGet();
+        bytes.addAndGet(size);
+        if (stored == true) {
+            newChunks.incrementAndGet();
+            newBytes.addAndGet(size);
+        }
+    }
+
+    public long files() {
+        return files.get();
+    }
+
+    public long chunks() {
+        return chunks.get();
+    }
+
+    public long newChunks() {
+        return newChunks.get();
+    }
+
+    public long bytes() {
+        return bytes.get();
+    }
+
+    public long newBytes() {
+        return newBytes.get();
+    }
+
+    // Share of chunked bytes that were already stored, 0 to 1
+    public double dedupRatio() {
+        long total = bytes.get();
+        if (total == 0) {
+            return 0;
+        }
+        return (double) (total - newBytes.get()) / total;
+    }
+
+    public String toString() {
+        return files() + " chunked files, " + chunks() + " chunks (" + newChunks() + " new), "
+                + bytes() + " bytes (" + newBytes() + " new), "
+                + String.format("%.1f", dedupRatio() * 100) + "% deduplicated";
+    }
+}
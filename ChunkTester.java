@@ -0,0 +1,218 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+public class ChunkTester {
+
+    public static void main(String[] args) {
+        try {
+            Random r = new Random(11);
+            byte[] data = new byte[3 * 1024 * 1024];
+            r.nextBytes(data);
+
+            // chunks put back together give the input, within the size limits
+            ArrayList<byte[]> chunks = chunk(data);
+            boolean sized = true;
+            int i = 0;
+            while (i < chunks.size()) {
+                int n = chunks.get(i).length;
+                if (n > Chunker.MAX_SIZE || (n < Chunker.MIN_SIZE && i < chunks.size() - 1)) {
+                    sized = false;
+                }
+                i = i + 1;
+            }
+            if (sized == true && Arrays.equals(join(chunks), data) && chunks.size() > 10) {
+                System.out.println("Chunks cover the input: PASS");
+            } else {
+                System.out.println("Chunks cover the input: FAIL " + chunks.size());
+            }
+
+            // an insert in the middle only changes the chunks around it
+            byte[] edited = new byte[data.length + 1];
+            System.arraycopy(data, 0, edited, 0, data.length / 2);
+            edited[data.length / 2] = 42;
+            System.arraycopy(data, data.length / 2, edited, data.length / 2 + 1, data.length - data.length / 2);
+            HashSet<String> before = new HashSet<String>();
+            i = 0;
+            while (i < chunks.size()) {
+                before.add(Hashing.hash(chunks.get(i)));
+                i = i + 1;
+            }
+            ArrayList<byte[]> after = chunk(edited);
+            int shared = 0;
+            i = 0;
+            while (i < after.size()) {
+                if (before.contains(Hashing.hash(after.get(i)))) {
+                    shared = shared + 1;
+                }
+                i = i + 1;
+            }
+            if (after.size() - shared <= 3) {
+                System.out.println("Boundaries follow content: PASS");
+            } else {
+                System.out.println("Boundaries follow content: FAIL " + shared + " of " + after.size());
+            }
+
+            deleteRecursively(new File("git"));
+            deleteRecursively(new File("kproj"));
+            ObjectStores.clearCache();
+            new Git().initializeRepository();
+            Blob.CHUNK = true;
+            writeFile("kproj/big.bin", data);
+            writeFile("kproj/small.txt", "small\n".getBytes(StandardCharsets.UTF_8));
+
+            // the manifest is the file's id everywhere
+            ArrayList<String> paths = new ArrayList<String>();
+            paths.add("kproj/big.bin");
+            paths.add("kproj/small.txt");
+            Index idx = new Index();
+            idx.addAll(paths);
+            String id = idx.lookup("kproj/big.bin");
+            ChunkStats first = idx.getChunkStats();
+            Manifest m = Manifest.of(ObjectStores.get(), id, ObjectStores.get().get(id));
+            String tree = new Tree().createTree("kproj");
+            boolean asId = m != null && m.size() == data.length && id.equals(Blob.hashOf("kproj/big.bin"))
+                    && new Tree().linePresent(new Tree().readObject(tree), "blob " + id + " kproj/big.bin")
+                    && idx.lookup("kproj/small.txt").equals(Blob.hashFile(new File("kproj/small.txt")))
+                    && first.files() == 1 && first.newChunks() == first.chunks() && first.chunks() == m.count();
+            final ArrayList<String> changes = new ArrayList<String>();
+            new Status(2).workingVsIndex("kproj", new Status.Listener() {
+                public void changed(char kind, String path) {
+                    changes.add(kind + " " + path);
+                }
+            });
+            if (asId == true && changes.size() == 0) {
+                System.out.println("Manifest as file id: PASS");
+            } else {
+                System.out.println("Manifest as file id: FAIL " + changes);
+            }
+
+            if (Arrays.equals(Blob.readContent(id), data) && Arrays.equals(readAll(Blob.openContent(id)), data)
+                    && Arrays.equals(readAll(Blob.openContent(idx.lookup("kproj/small.txt"))), "small\n".getBytes(StandardCharsets.UTF_8))) {
+                System.out.println("Chunked content reads back: PASS");
+            } else {
+                System.out.println("Chunked content reads back: FAIL");
+            }
+
+            // a one-byte edit stores only a few new chunks
+            writeFile("kproj/big.bin", edited);
+            idx.add("kproj/big.bin");
+            ChunkStats second = idx.getChunkStats();
+            System.out.println("  " + second);
+            if (!idx.lookup("kproj/big.bin").equals(id) && second.newChunks() <= 3 && second.dedupRatio() > 0.8
+                    && Arrays.equals(Blob.readContent(idx.lookup("kproj/big.bin")), edited)) {
+                System.out.println("Edit dedups against old chunks: PASS");
+            } else {
+                System.out.println("Edit dedups against old chunks: FAIL " + second);
+            }
+
+            boolean rejects = Manifest.parse("manifest 5 1\nchunk zz 5".getBytes(StandardCharsets.UTF_8)) == null
+                    && Manifest.parse("manifest 6 1\nchunk abcd 5".getBytes(StandardCharsets.UTF_8)) == null
+                    && Manifest.parse("manifesto".getBytes(StandardCharsets.UTF_8)) == null
+                    && Manifest.parse("manifest 5 1\nchunk abcd 5".getBytes(StandardCharsets.UTF_8)) != null;
+            if (rejects == true) {
+                System.out.println("Only real manifests parse: PASS");
+            } else {
+                System.out.println("Only real manifests parse: FAIL");
+            }
+
+            // a small file whose text is a valid manifest naming real chunks
+            // is still just that text, read or checked out
+            byte[] fake = ("manifest " + m.size(0) + " 1\nchunk " + m.id(0) + " " + m.size(0)).getBytes(StandardCharsets.UTF_8);
+            writeFile("kproj/fake.txt", fake);
+            idx.add("kproj/fake.txt");
+            String fakeId = idx.lookup("kproj/fake.txt");
+            String withFake = new Tree().createTree("kproj");
+            new File("kproj/fake.txt").delete();
+            new Checkout(2).checkout(withFake);
+            if (Arrays.equals(Blob.readContent(fakeId), fake) && Arrays.equals(readAll(Blob.openContent(fakeId)), fake)
+                    && Arrays.equals(Files.readAllBytes(new File("kproj/fake.txt").toPath()), fake)
+                    && ObjectStores.get().typeOf(fakeId) == null && Manifest.TYPE.equals(ObjectStores.get().typeOf(id))) {
+                System.out.println("Manifest lookalike stays a blob: PASS");
+            } else {
+                System.out.println("Manifest lookalike stays a blob: FAIL");
+            }
+
+            // packing keeps manifests typed, so both still read back
+            Pack.packObjects(true);
+            ObjectStores.clearCache();
+            if (Arrays.equals(Blob.readContent(fakeId), fake) && Arrays.equals(Blob.readContent(idx.lookup("kproj/big.bin")), edited)) {
+                System.out.println("Chunked files survive packing: PASS");
+            } else {
+                System.out.println("Chunked files survive packing: FAIL");
+            }
+
+            Blob.CHUNK = false;
+            deleteRecursively(new File("kproj"));
+            deleteRecursively(new File("git"));
+        } catch (Exception e) {
+            Blob.CHUNK = false;
+            e.printStackTrace();
+        }
+    }
+
+    private static ArrayList<byte[]> chunk(byte[] data) throws Exception {
+        ArrayList<byte[]> out = new ArrayList<byte[]>();
+        Chunker c = new Chunker(new ByteArrayInputStream(data));
+        byte[] next = c.next();
+        while (next != null) {
+            out.add(next);
+            next = c.next();
+        }
+        return out;
+    }
+
+    private static byte[] join(ArrayList<byte[]> chunks) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < chunks.size()) {
+            out.write(chunks.get(i));
+            i = i + 1;
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n = in.read(buf);
+        while (n != -1) {
+            out.write(buf, 0, n);
+            n = in.read(buf);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private static void writeFile(String name, byte[] content) throws Exception {
+        File f = new File(name);
+        if (f.getParentFile() != null) {
+            f.getParentFile().mkdirs();
+        }
+        FileOutputStream out = new FileOutputStream(f, false);
+        out.write(content);
+        out.close();
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            File[] kids = f.listFiles();
+            if (kids != null) {
+                int i = 0;
+                while (i < kids.length) {
+                    deleteRecursively(kids[i]);
+                    i = i + 1;
+                }
+            }
+        }
+        f.delete();
+    }
+}
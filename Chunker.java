@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+// FastCDC content-defined chunking. A gear hash rolls over the bytes and a
+// chunk ends where the hash has enough zero bits, so boundaries depend on
+// the content around them, not on offsets: an edit only changes the chunks
+// it touches, and the rest of the file dedups against the old version.
+//
+// Chunks are MIN_SIZE to MAX_SIZE bytes, about AVG_SIZE on average. As in
+// the FastCDC paper, the first MIN_SIZE bytes of a chunk are not hashed,
+// and a stricter mask before AVG_SIZE and a looser one after it keep chunk
+// sizes close to the average.
+public class Chunker {
+
+    public static final int MIN_SIZE = 16 * 1024;
+    public static final int AVG_SIZE = 64 * 1024;
+    public static final int MAX_SIZE = 256 * 1024;
+
+    // 18 and 14 one bits (AVG_SIZE is 2^16), in the high bits where the
+    // gear hash has seen the most bytes
+    private static final long MASK_S = 0xffffc00000000000L;
+    private static final long MASK_L = 0xfffc000000000000L;
+
+    private static final long[] GEAR = gearTable();
+
+    private final InputStream in;
+    private final byte[] buf = new byte[4 * MAX_SIZE];
+    private int start;
+    private int end;
+    private boolean eof;
+
+    public Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    // The next chunk, or null at the end of the stream
+    public byte[] next() throws IOException {
+        fill();
+        if (start == end) {
+            return null;
+        }
+        int n = cutPoint(buf, start, end - start);
+        byte[] chunk = Arrays.copyOfRange(buf, start, start + n);
+        start = start + n;
+        return chunk;
+    }
+
+    // Keeps at least MAX_SIZE bytes ahead unless the stream has ended,
+    // moving the unread bytes to the front when the buffer runs out
+    private void fill() throws IOException {
+        if (eof == true || end - start >= MAX_SIZE) {
+            return;
+        }
+        if (buf.length - start < MAX_SIZE) {
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end = end - start;
+            start = 0;
+        }
+        while (end - start < MAX_SIZE && end < buf.length) {
+            int r = in.read(buf, end, buf.length - end);
+            if (r == -1) {
+                eof = true;
+                return;
+            }
+            end = end + r;
+        }
+    }
+
+    // Length of the chunk starting at off, out of n available bytes
+    static int cutPoint(byte[] b, int off, int n) {
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        int normal = Math.min(AVG_SIZE, n);
+        int limit = Math.min(MAX_SIZE, n);
+        long fp = 0;
+        int i = MIN_SIZE;
+        while (i < normal) {
+            fp = (fp << 1) + GEAR[b[off + i] & 0xff];
+            if ((fp & MASK_S) == 0) {
+                return i + 1;
+            }
+            i = i + 1;
+        }
+        while (i < limit) {
+            fp = (fp << 1) + GEAR[b[off + i] & 0xff];
+            if ((fp & MASK_L) == 0) {
+                return i + 1;
+            }
+            i = i + 1;
+        }
+        return limit;
+    }
+
+    // Fixed random values (splitmix64 from a constant seed): the table must
+    // never change, or the same file would chunk differently
+    private static long[] gearTable() {
+        long[] t = new long[256];
+        long x = 0x6a09e667f3bcc908L;
+        int i = 0;
+        while (i < t.length) {
+            x = x + 0x9e3779b97f4a7c15L;
+            long z = x;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            t[i] = z ^ (z >>> 31);
+            i = i + 1;
+        }
+        return t;
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+// Commit objects are stored like trees, as text:
+//   tree <sha1>
+//   parent <sha1>        (left out for the first commit)
+//   author <name> <seconds since epoch>
+//
+//   <message>
+// git/HEAD holds the sha1 of the latest commit, or nothing before the first.
+public class Commit {
+
+    private final File headFile;
+
+    public Commit() {
+        this.headFile = new File("git" + File.separator + "HEAD");
+    }
+
+    // Builds the root tree of the index and commits it on top of HEAD, so
+    // the commit alone gives every path in full. Directories with no staged
+    // change since the last build come from git/index.tree without being
+    // rebuilt (see WorkingList.buildRoot).
+    public String commit(String author, String message) throws Exception {
+        if (author == null || author.length() == 0 || author.indexOf('\n') != -1) {
+            throw new IllegalArgumentException("Bad author: " + author);
+        }
+        if (message == null) {
+            message = "";
+        }
+
+        String parent = head();
+        String tree = new WorkingList().buildRoot();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("tree ").append(tree).append("\n");
+        if (parent != null) {
+            sb.append("parent ").append(parent).append("\n");
+        }
+        sb.append("author ").append(author).append(" ").append(System.currentTimeMillis() / 1000).append("\n");
+        sb.append("\n");
+        sb.append(message);
+
+        String data = sb.toString();
+        String sha = Hashing.hash(data);
+        ObjectStores.get().put(sha, data.getBytes(StandardCharsets.UTF_8));
+        updateHead(parent, sha);
+        return sha;
+    }
+
+    // Latest commit, or null if nothing has been committed
+    public String head() throws IOException {
+        if (!headFile.exists()) {
+            return null;
+        }
+        String s = new String(Files.readAllBytes(headFile.toPath()), StandardCharsets.UTF_8).trim();
+        if (s.length() == 0) {
+            return null;
+        }
+        return s;
+    }
+
+    public static String treeOf(String commitSha) throws IOException {
+        return header(commitSha, "tree");
+    }
+
+    public static String parentOf(String commitSha) throws IOException {
+        return header(commitSha, "parent");
+    }
+
+    private static String header(String commitSha, String name) throws IOException {
+        byte[] b = ObjectStores.get().get(commitSha);
+        if (b == null) {
+            throw new IOException("Commit not found: " + commitSha);
+        }
+        String text = new String(b, StandardCharsets.UTF_8);
+        int start = 0;
+        while (start < text.length()) {
+            int nl = text.indexOf('\n', start);
+            if (nl == -1) {
+                nl = text.length();
+            }
+            String line = text.substring(start, nl);
+            if (line.length() == 0) {
+                // Blank line ends the headers
+                break;
+            }
+            if (line.startsWith(name + " ")) {
+                return line.substring(name.length() + 1);
+            }
+            start = nl + 1;
+        }
+        return null;
+    }
+
+    // Writes HEAD through a temp file and a rename, so readers see either the
+    // old or the new commit, and refuses if HEAD moved since we read it.
+    // HEAD.lock keeps other threads and processes out between the check and
+    // the write.
+    private void updateHead(String expected, String sha) throws IOException {
+        RepoLock lock = RepoLock.lock(headFile);
+        try {
+            checkAndWriteHead(expected, sha);
+        } finally {
+            lock.release();
+        }
+    }
+
+    private void checkAndWriteHead(String expected, String sha) throws IOException {
+        String current = head();
+        boolean same;
+        if (expected == null) {
+            same = current == null;
+        } else {
+            same = expected.equals(current);
+        }
+        if (same == false) {
+            throw new IOException("HEAD moved during commit: expected " + expected + " but found " + current);
+        }
+        AtomicFile.write(headFile, sha.getBytes(StandardCharsets.UTF_8));
+    }
+}
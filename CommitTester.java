@@ -0,0 +1,136 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+public class CommitTester {
+
+    public static void main(String[] args) {
+        try {
+            deleteRecursively(new File("git"));
+            ObjectStores.clearCache();
+            new Git().initializeRepository();
+
+            makeFile("cproj/a.txt", "a\n");
+            makeFile("cproj/lib/b.txt", "b\n");
+            makeFile("cproj/docs/c.txt", "c\n");
+            ArrayList<String> paths = new ArrayList<String>();
+            paths.add("cproj/a.txt");
+            paths.add("cproj/lib/b.txt");
+            paths.add("cproj/docs/c.txt");
+            Index idx = new Index();
+            idx.addAll(paths);
+
+            Commit c = new Commit();
+            String first = c.commit("Tester", "First commit");
+            if (first.equals(c.head()) && Commit.parentOf(first) == null) {
+                System.out.println("First commit updates HEAD: PASS");
+            } else {
+                System.out.println("First commit updates HEAD: FAIL");
+            }
+
+            String firstTree = Commit.treeOf(first);
+            if (firstTree != null && firstTree.equals(new WorkingList().buildRoot())) {
+                System.out.println("Commit points at index tree: PASS");
+            } else {
+                System.out.println("Commit points at index tree: FAIL");
+            }
+
+            makeFile("cproj/lib/b.txt", "b changed\n");
+            idx.add("cproj/lib/b.txt");
+            String second = c.commit("Tester", "Change b");
+            String secondTree = Commit.treeOf(second);
+            boolean linked = first.equals(Commit.parentOf(second)) && second.equals(c.head());
+            boolean fresh = secondTree.equals(new WorkingList().buildRoot());
+            if (linked == true && fresh == true && !secondTree.equals(firstTree)) {
+                System.out.println("Second commit reuses parent tree correctly: PASS");
+            } else {
+                System.out.println("Second commit reuses parent tree correctly: FAIL");
+            }
+
+            Tree t = new Tree();
+            String text = t.readObject(second);
+            if (t.linePresent(text, "Change b") && t.linePresent(text, "tree " + secondTree)) {
+                System.out.println("Commit object content: PASS");
+            } else {
+                System.out.println("Commit object content: FAIL");
+            }
+
+            // A commit whose staged files all sit under one directory still
+            // records whole paths
+            deleteRecursively(new File("cproj"));
+            deleteRecursively(new File("git"));
+            ObjectStores.clearCache();
+            new Git().initializeRepository();
+            makeFile("a/b/x.txt", "x\n");
+            idx.add("a/b/x.txt");
+            String only = c.commit("Tester", "Only a/b/x.txt");
+            String found = resolve(Commit.treeOf(only), "a/b/x.txt");
+            if (found != null && found.equals(Blob.hashOf("a/b/x.txt"))) {
+                System.out.println("Commit tree holds whole paths: PASS");
+            } else {
+                System.out.println("Commit tree holds whole paths: FAIL");
+            }
+            deleteRecursively(new File("a"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Id of the entry at path, walking down from the tree one name at a time
+    private static String resolve(String tree, String path) throws Exception {
+        String[] names = path.split("/");
+        String sha = tree;
+        int i = 0;
+        while (i < names.length) {
+            String text = ObjectStores.get().getText(sha);
+            if (text == null) {
+                return null;
+            }
+            String type = "tree";
+            if (i == names.length - 1) {
+                type = "blob";
+            }
+            String next = null;
+            String[] lines = text.split("\n");
+            int j = 0;
+            while (j < lines.length) {
+                String[] parts = lines[j].split(" ", 3);
+                if (parts.length == 3 && parts[0].equals(type) && parts[2].equals(names[i])) {
+                    next = parts[1];
+                }
+                j = j + 1;
+            }
+            if (next == null) {
+                return null;
+            }
+            sha = next;
+            i = i + 1;
+        }
+        return sha;
+    }
+
+    private static void makeFile(String name, String content) throws Exception {
+        File f = new File(name);
+        if (f.getParentFile() != null) {
+            f.getParentFile().mkdirs();
+        }
+        FileWriter w = new FileWriter(f, false);
+        w.write(content);
+        w.flush();
+        w.close();
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            File[] kids = f.listFiles();
+            if (kids != null) {
+                int i = 0;
+                while (i < kids.length) {
+                    deleteRecursively(kids[i]);
+                    i = i + 1;
+                }
+            }
+        }
+        f.delete();
+    }
+}
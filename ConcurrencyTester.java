@@ -0,0 +1,187 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ConcurrencyTester {
+
+    private static final int THREADS = 8;
+    private static final int FILES_EACH = 10;
+    private static final int PROCESSES = 3;
+
+    public static void main(String[] args) {
+        try {
+            if (args.length == 2 && args[0].equals("child")) {
+                addOwnFiles("proc" + args[1]);
+                return;
+            }
+            deleteRecursively(new File("git"));
+            deleteRecursively(new File("cproj"));
+            ObjectStores.clearCache();
+            new Git().initializeRepository();
+
+            // threads of one JVM adding to the same index
+            final ArrayList<Exception> errors = new ArrayList<Exception>();
+            ArrayList<Thread> threads = new ArrayList<Thread>();
+            int i = 0;
+            while (i < THREADS) {
+                final String owner = "thread" + i;
+                Thread th = new Thread() {
+                    public void run() {
+                        try {
+                            addOwnFiles(owner);
+                        } catch (Exception e) {
+                            synchronized (errors) {
+                                errors.add(e);
+                            }
+                        }
+                    }
+                };
+                threads.add(th);
+                th.start();
+                i = i + 1;
+            }
+            i = 0;
+            while (i < threads.size()) {
+                threads.get(i).join();
+                i = i + 1;
+            }
+            boolean ok = errors.size() == 0;
+            i = 0;
+            while (i < THREADS) {
+                ok = ok && allStaged("thread" + i);
+                i = i + 1;
+            }
+            if (ok == true) {
+                System.out.println("Threads adding to one index: PASS");
+            } else {
+                System.out.println("Threads adding to one index: FAIL " + errors);
+            }
+
+            // separate processes adding to the same index
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            ArrayList<Process> procs = new ArrayList<Process>();
+            i = 0;
+            while (i < PROCESSES) {
+                ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        "ConcurrencyTester", "child", "" + i);
+                pb.inheritIO();
+                procs.add(pb.start());
+                i = i + 1;
+            }
+            boolean procsOk = true;
+            i = 0;
+            while (i < procs.size()) {
+                procsOk = procsOk && procs.get(i).waitFor() == 0;
+                i = i + 1;
+            }
+            i = 0;
+            while (i < PROCESSES) {
+                procsOk = procsOk && allStaged("proc" + i);
+                i = i + 1;
+            }
+            // the threads' entries must have survived the other processes
+            procsOk = procsOk && allStaged("thread0");
+            procsOk = procsOk && new Index().entries().size() == (THREADS + PROCESSES) * FILES_EACH;
+            if (procsOk == true) {
+                System.out.println("Processes adding to one index: PASS");
+            } else {
+                System.out.println("Processes adding to one index: FAIL");
+            }
+
+            String tree = new WorkingList().build();
+            boolean noTemp = ObjectStores.get().exists(tree) && noTempFiles(new File("git"));
+            if (noTemp == true) {
+                System.out.println("No temp files left: PASS");
+            } else {
+                System.out.println("No temp files left: FAIL");
+            }
+
+            deleteRecursively(new File("cproj"));
+            deleteRecursively(new File("git"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Adds FILES_EACH files of its own, in a few batches so the writers interleave
+    private static void addOwnFiles(String owner) throws Exception {
+        Index idx = new Index();
+        int i = 0;
+        while (i < FILES_EACH) {
+            String path = "cproj/" + owner + "/f" + i + ".txt";
+            makeFile(path, owner + " file " + i + "\n");
+            if (i % 3 == 0) {
+                idx.add(path);
+            } else {
+                ArrayList<String> paths = new ArrayList<String>();
+                paths.add(path);
+                idx.addAll(paths);
+            }
+            i = i + 1;
+        }
+    }
+
+    // Every file of owner is in the index and its object reads back intact
+    private static boolean allStaged(String owner) throws Exception {
+        Index idx = new Index();
+        List<String> entries = idx.entries();
+        int i = 0;
+        while (i < FILES_EACH) {
+            String path = "cproj/" + owner + "/f" + i + ".txt";
+            String sha = idx.lookup(path);
+            if (sha == null || !sha.equals(Blob.hashFile(new File(path)))) {
+                return false;
+            }
+            byte[] data = ObjectStores.get().get(sha);
+            if (data == null || !Hashing.hash(data).equals(sha)) {
+                return false;
+            }
+            i = i + 1;
+        }
+        return entries.size() > 0;
+    }
+
+    private static boolean noTempFiles(File dir) {
+        File[] kids = dir.listFiles();
+        if (kids == null) {
+            return true;
+        }
+        int i = 0;
+        while (i < kids.length) {
+            if (kids[i].getName().startsWith("tmp_")) {
+                return false;
+            }
+            if (kids[i].isDirectory() && !noTempFiles(kids[i])) {
+                return false;
+            }
+            i = i + 1;
+        }
+        return true;
+    }
+
+    private static void makeFile(String name, String content) throws Exception {
+        File f = new File(name);
+        if (f.getParentFile() != null) {
+            f.getParentFile().mkdirs();
+        }
+        FileWriter w = new FileWriter(f, false);
+        w.write(content);
+        w.flush();
+        w.close();
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            File[] kids = f.listFiles();
+            if (kids != null) {
+                int i = 0;
+                while (i < kids.length) {
+                    deleteRecursively(kids[i]);
+                    i = i + 1;
+                }
+            }
+        }
+        f.delete();
+    }
+}
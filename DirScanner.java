@@ -0,0 +1,319 @@
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Snapshot of a directory tree taken with many stats and reads in flight at
+// once. Each entry is one task: it reads the entry's BasicFileAttributes
+// (a single stat, instead of File.isFile plus File.isDirectory), lists a
+// directory with a DirectoryStream and queues its children, or hands a file
+// to the Handler (e.g. to hash and store it). On slow or network disks the
+// walk waits on latency, not CPU, so overlapping the calls is what helps.
+//
+// Tasks run on virtual threads when the JVM has them (Java 21+), at most
+// `parallelism` at a time; otherwise on a pool of `parallelism` threads.
+// No task ever waits for another, so a small pool cannot deadlock.
+// Children keep the order the directory listed them in, the same order as
+// File.listFiles, so trees built from a snapshot hash the same as before.
+// Entries matched by the IgnoreRules are dropped right after their stat;
+// an ignored directory is never listed, so nothing under it is touched.
+public class DirScanner {
+
+    // Called for each regular file, from any thread; the result is kept in
+    // the file's Node
+    public interface Handler {
+        String file(String path, BasicFileAttributes attrs) throws IOException;
+    }
+
+    public static class Node {
+        public final String path;
+        public final String name;
+        private BasicFileAttributes attrs;
+        private final ArrayList<Node> children = new ArrayList<Node>();
+        private volatile String value;
+
+        Node(String path, String name) {
+            this.path = path;
+            this.name = name;
+        }
+
+        public BasicFileAttributes attrs() {
+            return attrs;
+        }
+
+        public boolean isFile() {
+            return attrs != null && attrs.isRegularFile();
+        }
+
+        public boolean isDirectory() {
+            return attrs != null && attrs.isDirectory();
+        }
+
+        // What the Handler returned for this file
+        public String value() {
+            return value;
+        }
+
+        // Files and directories in listing order; other entries are left out
+        public List<Node> children() {
+            return children;
+        }
+    }
+
+    // The walk waits on I/O, not CPU, so well over the core count is useful
+    public static final int DEFAULT_PARALLELISM = 32;
+
+    private final int parallelism;
+    private final boolean virtual;
+    private final IgnoreRules ignore;
+
+    public DirScanner() {
+        this(DEFAULT_PARALLELISM);
+    }
+
+    public DirScanner(int parallelism) {
+        this(parallelism, new IgnoreRules());
+    }
+
+    public DirScanner(int parallelism, IgnoreRules ignore) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.virtual = parallelism > 1 && hasVirtualThreads();
+        this.ignore = ignore;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtual;
+    }
+
+    // Entries of one directory with their attributes, in listing order, on
+    // the calling thread
+    public static List<Node> list(String dirPath, IgnoreRules ignore) throws IOException {
+        ArrayList<Node> out = new ArrayList<Node>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(dirPath));
+        try {
+            for (Path p : stream) {
+                Node n = new Node(p.toString(), p.getFileName().toString());
+                n.attrs = attributes(p);
+                if (n.attrs != null && ignore.isIgnored(n.path, n.isDirectory())) {
+                    continue;
+                }
+                if (n.isFile() || n.isDirectory()) {
+                    out.add(n);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        return out;
+    }
+
+    // Walks dirPath and returns its root Node once every entry is done.
+    // handler may be null to only collect attributes.
+    public Node scan(String dirPath, Handler handler) throws IOException {
+        Path root = Paths.get(dirPath);
+        Walk walk = new Walk(handler);
+        Node top = new Node(root.toString(), root.getFileName() == null ? "" : root.getFileName().toString());
+        walk.top = top;
+        walk.submit(top);
+        walk.await();
+        if (!top.isDirectory()) {
+            throw new IOException("Not a directory: " + dirPath);
+        }
+        prune(top);
+        return top;
+    }
+
+    // Every file under node, depth first in listing order
+    public static List<Node> files(Node node) {
+        ArrayList<Node> out = new ArrayList<Node>();
+        addFiles(node, out);
+        return out;
+    }
+
+    private static void addFiles(Node node, ArrayList<Node> out) {
+        if (node.isFile()) {
+            out.add(node);
+            return;
+        }
+        int i = 0;
+        while (i < node.children.size()) {
+            addFiles(node.children.get(i), out);
+            i = i + 1;
+        }
+    }
+
+    // State of one scan
+    private class Walk {
+        private final Handler handler;
+        private final ExecutorService executor;
+        // Bounds the virtual threads doing I/O at once; a pool bounds itself
+        private final Semaphore inFlight;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile IOException failure;
+        private Node top;
+
+        Walk(Handler handler) {
+            this.handler = handler;
+            ExecutorService v = null;
+            if (virtual == true) {
+                v = newVirtualExecutor();
+            }
+            if (v != null) {
+                this.executor = v;
+                this.inFlight = new Semaphore(parallelism);
+            } else {
+                this.executor = Executors.newFixedThreadPool(parallelism);
+                this.inFlight = null;
+            }
+        }
+
+        void submit(final Node node) {
+            pending.incrementAndGet();
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        if (failure == null) {
+                            visit(node);
+                        }
+                    } catch (IOException e) {
+                        fail(e);
+                    } catch (RuntimeException e) {
+                        fail(new IOException("Scan failed at " + node.path, e));
+                    } catch (InterruptedException e) {
+                        fail(new IOException("Scan interrupted at " + node.path));
+                    } finally {
+                        if (pending.decrementAndGet() == 0) {
+                            done.countDown();
+                        }
+                    }
+                }
+            });
+        }
+
+        private void visit(Node node) throws IOException, InterruptedException {
+            if (inFlight != null) {
+                inFlight.acquire();
+            }
+            ArrayList<Node> kids = null;
+            try {
+                node.attrs = attributes(Paths.get(node.path));
+                if (node != top && node.attrs != null && ignore.isIgnored(node.path, node.isDirectory())) {
+                    // Pruned like a vanished file, without listing or reading it
+                    node.attrs = null;
+                } else if (node.isFile()) {
+                    if (handler != null) {
+                        node.value = handler.file(node.path, node.attrs);
+                    }
+                } else if (node.isDirectory()) {
+                    kids = new ArrayList<Node>();
+                    DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(node.path));
+                    try {
+                        for (Path p : stream) {
+                            kids.add(new Node(p.toString(), p.getFileName().toString()));
+                        }
+                    } finally {
+                        stream.close();
+                    }
+                }
+            } finally {
+                if (inFlight != null) {
+                    inFlight.release();
+                }
+            }
+            if (kids != null) {
+                node.children.addAll(kids);
+                int i = 0;
+                while (i < kids.size()) {
+                    submit(kids.get(i));
+                    i = i + 1;
+                }
+            }
+        }
+
+        private void fail(IOException e) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        void await() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Scan interrupted");
+            } finally {
+                executor.shutdown();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    // Drops entries that turned out to be neither file nor directory
+    // (sockets, broken links), which the File.listFiles walks skipped too
+    private static void prune(Node node) {
+        int i = node.children.size() - 1;
+        while (i >= 0) {
+            Node kid = node.children.get(i);
+            if (kid.isDirectory()) {
+                prune(kid);
+            } else if (!kid.isFile()) {
+                node.children.remove(i);
+            }
+            i = i - 1;
+        }
+    }
+
+    // Attributes following links, or null for a broken link or a file
+    // removed since it was listed
+    private static BasicFileAttributes attributes(Path p) throws IOException {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() through reflection, so the
+    // code still compiles and runs on JVMs without virtual threads
+    private static ExecutorService newVirtualExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
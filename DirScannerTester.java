@@ -0,0 +1,135 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class DirScannerTester {
+
+    public static void main(String[] args) {
+        try {
+            deleteRecursively(new File("git"));
+            deleteRecursively(new File("dproj"));
+            ObjectStores.clearCache();
+            new Git().initializeRepository();
+
+            int d = 0;
+            while (d < 6) {
+                int f = 0;
+                while (f < 5) {
+                    makeFile("dproj/d" + d + "/sub" + (f % 2) + "/f" + f + ".txt", "dir " + d + " file " + f + "\n");
+                    f = f + 1;
+                }
+                d = d + 1;
+            }
+            makeFile("dproj/top.txt", "top\n");
+            new File("dproj/empty").mkdirs();
+
+            // the snapshot has the same files as a File.listFiles walk
+            ArrayList<String> expected = new ArrayList<String>();
+            listAll(new File("dproj"), expected);
+            Collections.sort(expected);
+            DirScanner scanner = new DirScanner(8);
+            DirScanner.Node root = scanner.scan("dproj", null);
+            ArrayList<String> found = new ArrayList<String>();
+            List<DirScanner.Node> files = DirScanner.files(root);
+            int i = 0;
+            while (i < files.size()) {
+                found.add(files.get(i).path);
+                i = i + 1;
+            }
+            Collections.sort(found);
+            if (found.equals(expected) && root.isDirectory() && files.get(0).attrs().size() > 0) {
+                System.out.println("Scan finds every file (virtual threads: " + scanner.usesVirtualThreads() + "): PASS");
+            } else {
+                System.out.println("Scan finds every file: FAIL " + found);
+            }
+
+            // the scanner-fed tree hashes the same as the serial walk
+            String serial = new Tree().createTree("dproj");
+            String parallel = new Tree(8).createTree("dproj");
+            String onePool = new Tree(2).createTree("dproj");
+            if (serial.equals(parallel) && serial.equals(onePool)) {
+                System.out.println("Scanner tree matches serial tree: PASS");
+            } else {
+                System.out.println("Scanner tree matches serial tree: FAIL");
+            }
+
+            // addDirectory stages everything the scan found
+            Index idx = new Index();
+            idx.addDirectory("dproj");
+            boolean staged = idx.entries().size() == expected.size();
+            i = 0;
+            while (i < expected.size()) {
+                String path = expected.get(i);
+                String sha = idx.lookup(path);
+                staged = staged && sha != null && sha.equals(Blob.hashFile(new File(path)));
+                i = i + 1;
+            }
+            if (staged == true) {
+                System.out.println("Index from a scan: PASS");
+            } else {
+                System.out.println("Index from a scan: FAIL " + idx.entries());
+            }
+
+            boolean missing = false;
+            try {
+                scanner.scan("dproj/nope", null);
+            } catch (IOException e) {
+                missing = true;
+            }
+            if (missing == true) {
+                System.out.println("Missing directory rejected: PASS");
+            } else {
+                System.out.println("Missing directory rejected: FAIL");
+            }
+
+            deleteRecursively(new File("dproj"));
+            deleteRecursively(new File("git"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void listAll(File dir, ArrayList<String> out) {
+        File[] kids = dir.listFiles();
+        if (kids == null) {
+            return;
+        }
+        int i = 0;
+        while (i < kids.length) {
+            if (kids[i].isFile()) {
+                out.add(kids[i].getPath());
+            } else if (kids[i].isDirectory()) {
+                listAll(kids[i], out);
+            }
+            i = i + 1;
+        }
+    }
+
+    private static void makeFile(String name, String content) throws Exception {
+        File f = new File(name);
+        if (f.getParentFile() != null) {
+            f.getParentFile().mkdirs();
+        }
+        FileWriter w = new FileWriter(f, false);
+        w.write(content);
+        w.flush();
+        w.close();
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            File[] kids = f.listFiles();
+            if (kids != null) {
+                int i = 0;
+                while (i < kids.length) {
+                    deleteRecursively(kids[i]);
+                    i = i + 1;
+                }
+            }
+        }
+        f.delete();
+    }
+}
@@ -1,8 +1,6 @@
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.FileInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 public class Git {
     private final File repo;
@@ -12,6 +10,16 @@ public class Git {
     }
 
     public void initializeRepository() {
+        initializeRepository(Hashing.SHA1);
+    }
+
+    // format names objects: Hashing.SHA1, SHA256 or MURMUR3. It is written to
+    // git/config and only applies to a new repository; an existing one keeps
+    // the format it was made with.
+    public void initializeRepository(String format) {
+        if (!Hashing.isFormat(format)) {
+            throw new IllegalArgumentException("Unknown object format: " + format);
+        }
         // Code to initialize a Git repository
         File objects = new File(repo, "objects");
         File index = new File(repo, "index");
@@ -23,6 +31,7 @@ public class Git {
         boolean headOk = head.exists() && head.isFile();
 
         if (repoOk && objectsOk && indexOk && headOk) {
+            Hashing.reload();
             System.out.println("Git Repository Already Exists");
             return;
         }
@@ -51,39 +60,28 @@ public class Git {
             }
         }
 
+        File config = new File(repo, "config");
+        if (!config.exists()) {
+            try {
+                FileWriter w = new FileWriter(config, false);
+                w.write("objectformat = " + format + "\n");
+                w.flush();
+                w.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        Hashing.reload();
+
         System.out.println("Git Repository Created");
     }
 
-    public static String sha1FromFile(File file) throws IOException {
+    public static String hashFile(File file) throws IOException {
         if (file == null || !file.exists() || !file.isFile()) {
             throw new IOException("File not found: " + file);
         }
 
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-1 algorithm not available");
-        }
-
-        FileInputStream fis = new FileInputStream(file);
-        byte[] buffer = new byte[8192];
-        int bytesRead;
-        while ((bytesRead = fis.read(buffer)) != -1) {
-            md.update(buffer, 0, bytesRead);
-        }
-        fis.close();
-
-        byte[] hashBytes = md.digest();
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < hashBytes.length; i++) {
-            String hex = Integer.toHexString(hashBytes[i] & 0xff);
-            if (hex.length() == 1) {
-                sb.append("0");
-            }
-            sb.append(hex);
-        }
-        return sb.toString();
+        return Hashing.hash(file);
     }
     
 }
\ No newline at end of file
@@ -33,7 +33,7 @@ public class GitTester {
         // Compute SHA-1
         String expected;
         try {
-            expected = Blob.sha1FromFile(new File("tester_file.txt"));
+            expected = Blob.hashFile(new File("tester_file.txt"));
         } catch (Exception e) {
             System.out.println("SHA1 compute: FAIL");
             return;
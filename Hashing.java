@@ -0,0 +1,264 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+// All hashing for the whole program. Object ids use the repository's object
+// format, recorded in git/config by Git.initializeRepository:
+//   sha1     20-byte ids, the default and what repositories without a config use
+//   sha256   32-byte ids
+//   murmur3  16-byte MurmurHash3 x64 128 ids; fast but not collision resistant,
+//            only for scratch repositories
+// File checksums (packs, binary index, index stamps) are always SHA-1.
+//
+// MessageDigest.getInstance looks up a provider every time, so each thread
+// keeps its digests (and one read buffer) and reuses them. Large files are
+// memory mapped instead of read. The helpers are
+// safe to call from any number of threads.
+public class Hashing {
+
+    public static final String SHA1 = "sha1";
+    public static final String SHA256 = "sha256";
+    public static final String MURMUR3 = "murmur3";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Files at least this big are hashed through memory maps
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+    private static final HashMap<String, MessageDigest> PROTOTYPES = new HashMap<String, MessageDigest>();
+
+    // Format in use, read from git/config the first time it is needed
+    private static volatile String format = null;
+
+    private static final ThreadLocal<HashMap<String, MessageDigest>> DIGESTS = new ThreadLocal<HashMap<String, MessageDigest>>() {
+        protected HashMap<String, MessageDigest> initialValue() {
+            return new HashMap<String, MessageDigest>();
+        }
+    };
+
+    private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    public static String[] formats() {
+        return new String[] { SHA1, SHA256, MURMUR3 };
+    }
+
+    public static boolean isFormat(String name) {
+        return SHA1.equals(name) || SHA256.equals(name) || MURMUR3.equals(name);
+    }
+
+    public static String format() {
+        String f = format;
+        if (f == null) {
+            f = reload();
+        }
+        return f;
+    }
+
+    // Switches object ids to another format, e.g. after opening a repository
+    public static synchronized void use(String name) {
+        if (!isFormat(name)) {
+            throw new IllegalArgumentException("Unknown object format: " + name);
+        }
+        format = name;
+    }
+
+    // Reads the format from git/config again; sha1 if it has none
+    public static synchronized String reload() {
+        String found = readConfig(new File("git" + File.separator + "config"));
+        if (found == null) {
+            found = SHA1;
+        }
+        use(found);
+        return found;
+    }
+
+    // Bytes in an object id of the current format
+    public static int idLength() {
+        return digest(format()).getDigestLength();
+    }
+
+    // A digest of its own, for callers that hash a stream over many calls
+    // (e.g. through a DigestOutputStream)
+    public static MessageDigest newDigest() {
+        return newDigest(format());
+    }
+
+    public static MessageDigest newDigest(String name) {
+        if (SHA1.equals(name)) {
+            return jdkDigest("SHA-1");
+        }
+        if (SHA256.equals(name)) {
+            return jdkDigest("SHA-256");
+        }
+        if (MURMUR3.equals(name)) {
+            return new Murmur3Digest();
+        }
+        throw new IllegalArgumentException("Unknown object format: " + name);
+    }
+
+    // Object ids, in the repository's format
+
+    public static String hash(String text) {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        return Hex.encode(digest(format(), data, 0, data.length));
+    }
+
+    public static String hash(byte[] data) {
+        return Hex.encode(digest(format(), data, 0, data.length));
+    }
+
+    // Hashes the buffer's remaining bytes, leaving its position at the limit.
+    // Direct buffers are read without copying them onto the heap.
+    public static String hash(ByteBuffer buffer) {
+        MessageDigest md = digest(format());
+        md.update(buffer);
+        return Hex.encode(md.digest());
+    }
+
+    // Hashes the channel from its current position to the end
+    public static String hash(FileChannel channel) throws IOException {
+        return Hex.encode(digest(format(), channel));
+    }
+
+    public static String hash(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return hash(in.getChannel());
+        } finally {
+            in.close();
+        }
+    }
+
+    // SHA-1 checksums of files, whatever the object format
+
+    public static String sha1(byte[] data) {
+        return Hex.encode(checksum(data, 0, data.length));
+    }
+
+    public static String sha1(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return Hex.encode(digest(SHA1, in.getChannel()));
+        } finally {
+            in.close();
+        }
+    }
+
+    public static byte[] checksum(byte[] data, int off, int len) {
+        return digest(SHA1, data, off, len);
+    }
+
+    public static MessageDigest newSha1() {
+        return newDigest(SHA1);
+    }
+
+    private static byte[] digest(String name, byte[] data, int off, int len) {
+        MessageDigest md = digest(name);
+        md.update(data, off, len);
+        return md.digest();
+    }
+
+    private static byte[] digest(String name, FileChannel channel) throws IOException {
+        MessageDigest md = digest(name);
+        long position = channel.position();
+        long size = channel.size();
+        if (size - position >= MAP_THRESHOLD) {
+            // Hash straight from the page cache, a window at a time so files
+            // over 2 GB work and not all of a huge file is mapped at once
+            while (position < size) {
+                long n = Math.min(MAP_WINDOW, size - position);
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, position, n);
+                md.update(map);
+                position = position + n;
+            }
+            channel.position(size);
+            return md.digest();
+        }
+        ByteBuffer buffer = BUFFER.get();
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer);
+            if (read == -1) {
+                break;
+            }
+            buffer.flip();
+            md.update(buffer);
+        }
+        return md.digest();
+    }
+
+    // This thread's digest for the format, reset and ready to use
+    private static MessageDigest digest(String name) {
+        HashMap<String, MessageDigest> mine = DIGESTS.get();
+        MessageDigest md = mine.get(name);
+        if (md == null) {
+            md = newDigest(name);
+            mine.put(name, md);
+        }
+        md.reset();
+        return md;
+    }
+
+    // Cloning a prototype skips the provider lookup getInstance does
+    private static MessageDigest jdkDigest(String algorithm) {
+        MessageDigest prototype;
+        synchronized (PROTOTYPES) {
+            prototype = PROTOTYPES.get(algorithm);
+            if (prototype == null) {
+                try {
+                    prototype = MessageDigest.getInstance(algorithm);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new RuntimeException(algorithm + " not available");
+                }
+                PROTOTYPES.put(algorithm, prototype);
+            }
+        }
+        try {
+            return (MessageDigest) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            try {
+                return MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e2) {
+                throw new RuntimeException(algorithm + " not available");
+            }
+        }
+    }
+
+    // "objectformat = <name>" from the config, or null
+    private static String readConfig(File config) {
+        if (!config.isFile()) {
+            return null;
+        }
+        try {
+            BufferedReader br = new BufferedReader(new FileReader(config));
+            try {
+                String line = br.readLine();
+                while (line != null) {
+                    int eq = line.indexOf('=');
+                    if (eq != -1 && line.substring(0, eq).trim().equals("objectformat")) {
+                        return line.substring(eq + 1).trim();
+                    }
+                    line = br.readLine();
+                }
+            } finally {
+                br.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,171 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Random;
+
+public class HashingTester {
+
+    public static void main(String[] args) {
+        try {
+            Random r = new Random(3);
+            byte[] data = new byte[200000];
+            r.nextBytes(data);
+            String expected = Hex.encode(MessageDigest.getInstance("SHA-1").digest(data));
+
+            File f = new File("hashing_test.bin");
+            FileOutputStream out = new FileOutputStream(f);
+            out.write(data);
+            out.close();
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data);
+            direct.flip();
+
+            FileInputStream in = new FileInputStream(f);
+            String fromChannel = Hashing.hash(in.getChannel());
+            in.close();
+
+            String text = "hello\nworld";
+            String textExpected = Hex.encode(MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8)));
+
+            if (Hashing.hash(data).equals(expected) && Hashing.hash(direct).equals(expected)
+                    && fromChannel.equals(expected) && Hashing.hash(f).equals(expected)
+                    && Blob.hashFile(f).equals(expected) && Hashing.hash(text).equals(textExpected)) {
+                System.out.println("Hashing matches MessageDigest: PASS");
+            } else {
+                System.out.println("Hashing matches MessageDigest: FAIL");
+            }
+
+            // many threads hashing at once each get their own digest
+            final byte[][] inputs = new byte[8][];
+            final String[] answers = new String[8];
+            int i = 0;
+            while (i < inputs.length) {
+                inputs[i] = new byte[1000 + i * 777];
+                r.nextBytes(inputs[i]);
+                answers[i] = Hex.encode(MessageDigest.getInstance("SHA-1").digest(inputs[i]));
+                i = i + 1;
+            }
+            final boolean[] ok = new boolean[] { true };
+            ArrayList<Thread> threads = new ArrayList<Thread>();
+            i = 0;
+            while (i < 8) {
+                final int t = i;
+                Thread th = new Thread() {
+                    public void run() {
+                        int n = 0;
+                        while (n < 2000) {
+                            int k = (n + t) % inputs.length;
+                            if (!Hashing.hash(inputs[k]).equals(answers[k])) {
+                                synchronized (ok) {
+                                    ok[0] = false;
+                                }
+                            }
+                            n = n + 1;
+                        }
+                    }
+                };
+                threads.add(th);
+                th.start();
+                i = i + 1;
+            }
+            i = 0;
+            while (i < threads.size()) {
+                threads.get(i).join();
+                i = i + 1;
+            }
+            if (ok[0] == true) {
+                System.out.println("Hashing from many threads: PASS");
+            } else {
+                System.out.println("Hashing from many threads: FAIL");
+            }
+            f.delete();
+
+            checkFormat(Hashing.SHA256, 64);
+            checkFormat(Hashing.MURMUR3, 32);
+            checkFormat(Hashing.SHA1, 40);
+
+            // reference MurmurHash3 x64 128 values
+            if (Hex.encode(new Murmur3Digest().digest("hello".getBytes(StandardCharsets.UTF_8))).equals("029bbd41b3a7d8cb191dae486a901e5b")
+                    && Hex.encode(new Murmur3Digest().digest(new byte[0])).equals("00000000000000000000000000000000")) {
+                System.out.println("MurmurHash3 reference values: PASS");
+            } else {
+                System.out.println("MurmurHash3 reference values: FAIL");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // A repository made with the format names every object with ids of that width
+    private static void checkFormat(String format, int hexLen) throws Exception {
+        deleteRecursively(new File("git"));
+        deleteRecursively(new File("hproj"));
+        ObjectStores.clearCache();
+        new Git().initializeRepository(format);
+        Hashing.use(Hashing.SHA1);
+        Hashing.reload();
+
+        makeFile("hproj/a.txt", "a\n");
+        makeFile("hproj/sub/b.txt", "b\n");
+        ArrayList<String> paths = new ArrayList<String>();
+        paths.add("hproj/a.txt");
+        paths.add("hproj/sub/b.txt");
+        Index idx = new Index();
+        idx.addAll(paths);
+        String blob = idx.lookup("hproj/a.txt");
+        String tree = new WorkingList().build();
+        String commit = new Commit().commit("Tester", "format " + format);
+
+        Index.BINARY = true;
+        idx.convert();
+        boolean binaryOk = blob.equals(idx.lookup("hproj/a.txt")) && tree.equals(new WorkingList().build());
+        Index.BINARY = false;
+        idx.convert();
+
+        Pack.packObjects(true);
+        ObjectStores.clearCache();
+        boolean packed = ObjectStores.get().exists(blob) && ObjectStores.get().exists(commit);
+
+        boolean ok = format.equals(Hashing.format()) && blob.length() == hexLen && tree.length() == hexLen
+                && commit.length() == hexLen && blob.equals(Blob.hashFile(new File("hproj/a.txt")))
+                && binaryOk && packed;
+        if (ok == true) {
+            System.out.println("Object format " + format + ": PASS");
+        } else {
+            System.out.println("Object format " + format + ": FAIL");
+        }
+        deleteRecursively(new File("hproj"));
+        deleteRecursively(new File("git"));
+    }
+
+    private static void makeFile(String name, String content) throws Exception {
+        File f = new File(name);
+        if (f.getParentFile() != null) {
+            f.getParentFile().mkdirs();
+        }
+        FileWriter w = new FileWriter(f, false);
+        w.write(content);
+        w.flush();
+        w.close();
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            File[] kids = f.listFiles();
+            if (kids != null) {
+                int i = 0;
+                while (i < kids.length) {
+                    deleteRecursively(kids[i]);
+                    i = i + 1;
+                }
+            }
+        }
+        f.delete();
+    }
+}
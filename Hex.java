@@ -0,0 +1,88 @@
+import java.util.Arrays;
+
+// The one place that converts object ids between raw bytes (20 for SHA-1)
+// and hex, with lookup tables so no String is made per byte. Ids are passed
+// around as lowercase hex strings; raw bytes are only used where they are
+// stored, e.g. pack and binary indexes. Raw ids compare by unsigned bytes,
+// which is the same order as their lowercase hex.
+public final class Hex {
+
+    private static final char[] DIGIT_CHARS = "0123456789abcdef".toCharArray();
+    // Value of each ASCII hex digit, -1 for anything else
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        Arrays.fill(DIGITS, (byte) -1);
+        int i = 0;
+        while (i < 16) {
+            DIGITS[DIGIT_CHARS[i]] = (byte) i;
+            DIGITS[Character.toUpperCase(DIGIT_CHARS[i])] = (byte) i;
+            i = i + 1;
+        }
+    }
+
+    private Hex() {
+    }
+
+    public static String encode(byte[] b) {
+        return encode(b, 0, b.length);
+    }
+
+    public static String encode(byte[] b, int off, int len) {
+        char[] out = new char[len * 2];
+        int i = 0;
+        while (i < len) {
+            int v = b[off + i] & 0xff;
+            out[2 * i] = DIGIT_CHARS[v >>> 4];
+            out[2 * i + 1] = DIGIT_CHARS[v & 0x0f];
+            i = i + 1;
+        }
+        return new String(out);
+    }
+
+    public static byte[] decode(String hex) {
+        if (!isHex(hex)) {
+            throw new IllegalArgumentException("Bad object id: " + hex);
+        }
+        byte[] out = new byte[hex.length() / 2];
+        int i = 0;
+        while (i < out.length) {
+            int hi = DIGITS[hex.charAt(2 * i)];
+            int lo = DIGITS[hex.charAt(2 * i + 1)];
+            out[i] = (byte) ((hi << 4) | lo);
+            i = i + 1;
+        }
+        return out;
+    }
+
+    // An even number (2 to 510) of hex digits
+    public static boolean isHex(String s) {
+        if (s == null || s.length() == 0 || s.length() % 2 != 0 || s.length() > 510) {
+            return false;
+        }
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c >= 128 || DIGITS[c] == -1) {
+                return false;
+            }
+            i = i + 1;
+        }
+        return true;
+    }
+
+    // Compares raw id a with the id of the same length at off in b, e.g. in
+    // a sorted pack index
+    public static int compare(byte[] a, byte[] b, int off) {
+        int i = 0;
+        while (i < a.length) {
+            int x = a[i] & 0xff;
+            int y = b[off + i] & 0xff;
+            if (x != y) {
+                return x - y;
+            }
+            i = i + 1;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,85 @@
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+public class HexTester {
+
+    public static void main(String[] args) {
+        try {
+            // hex must match the old per-byte Integer.toHexString encoding
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            Random r = new Random(7);
+            boolean same = true;
+            ArrayList<String> hexes = new ArrayList<String>();
+            ArrayList<byte[]> raws = new ArrayList<byte[]>();
+            int i = 0;
+            while (i < 200) {
+                byte[] data = new byte[r.nextInt(100)];
+                r.nextBytes(data);
+                byte[] digest = md.digest(data);
+                String hex = Hex.encode(digest);
+                same = same && hex.equals(oldHex(digest));
+                same = same && Arrays.equals(Hex.decode(hex), digest) && Arrays.equals(Hex.decode(hex.toUpperCase()), digest);
+                hexes.add(hex);
+                raws.add(digest);
+                i = i + 1;
+            }
+            if (same == true) {
+                System.out.println("Hex round trip: PASS");
+            } else {
+                System.out.println("Hex round trip: FAIL");
+            }
+
+            // raw order is the same as hex order
+            Collections.sort(hexes);
+            Collections.sort(raws, new Comparator<byte[]>() {
+                public int compare(byte[] a, byte[] b) {
+                    return Hex.compare(a, b, 0);
+                }
+            });
+            boolean ordered = true;
+            i = 0;
+            while (i < raws.size()) {
+                ordered = ordered && Hex.encode(raws.get(i)).equals(hexes.get(i));
+                i = i + 1;
+            }
+            if (ordered == true) {
+                System.out.println("Raw order matches hex order: PASS");
+            } else {
+                System.out.println("Raw order matches hex order: FAIL");
+            }
+
+            boolean rejected = !Hex.isHex("abc") && !Hex.isHex("zz") && !Hex.isHex("");
+            try {
+                Hex.decode("not hex!");
+                rejected = false;
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            if (rejected == true) {
+                System.out.println("Bad ids rejected: PASS");
+            } else {
+                System.out.println("Bad ids rejected: FAIL");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String oldHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < bytes.length) {
+            String h = Integer.toHexString(bytes[i] & 0xff);
+            if (h.length() == 1) {
+                sb.append('0');
+            }
+            sb.append(h);
+            i = i + 1;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,376 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+// .gitignore-style rules, read from .gitignore in the working directory and
+// git/info/exclude. Supported, as in git:
+//   # comment, blank lines, "\#" and "\!" for a literal first character
+//   !pattern       re-includes what an earlier pattern ignored
+//   pattern/       only matches directories
+//   /pattern, a/b  anchored to the top; a pattern with no "/" matches at any depth
+//   * ? [a-z] [!a-z]  within one path segment; "**" matches any number of segments
+// The last matching pattern wins. Nothing inside an ignored directory can be
+// re-included, because walkers skip the whole directory.
+//
+// Patterns are compiled into a trie of path segments. Literal segments are
+// found with one HashMap lookup, so a path costs about one step per segment
+// no matter how many patterns there are; only wildcard segments are tried
+// one by one.
+public class IgnoreRules {
+
+    private static class Node {
+        final HashMap<String, Node> literal = new HashMap<String, Node>();
+        final ArrayList<String> globs = new ArrayList<String>();
+        final ArrayList<Node> globNodes = new ArrayList<Node>();
+        // Child for a "**" segment; a "**" node also matches any segment itself
+        Node anyDepth;
+        boolean isAnyDepth;
+        // Highest rule ending here, for any entry and for directories only
+        int rule = -1;
+        int dirRule = -1;
+    }
+
+    private final Node root = new Node();
+    // Whether each rule, in file order, is a negation
+    private final ArrayList<Boolean> rules = new ArrayList<Boolean>();
+
+    public IgnoreRules() {
+    }
+
+    // Rules of the repository in the working directory; no rules if neither
+    // file exists
+    public static IgnoreRules load() throws IOException {
+        IgnoreRules r = new IgnoreRules();
+        r.addFile(new File("git" + File.separator + "info" + File.separator + "exclude"));
+        r.addFile(new File(".gitignore"));
+        return r;
+    }
+
+    public static IgnoreRules parse(String text) {
+        IgnoreRules r = new IgnoreRules();
+        String[] lines = text.split("\n", -1);
+        int i = 0;
+        while (i < lines.length) {
+            r.add(lines[i]);
+            i = i + 1;
+        }
+        return r;
+    }
+
+    public boolean isEmpty() {
+        return rules.size() == 0;
+    }
+
+    // Appends the patterns of file, which override the ones added before it
+    public void addFile(File file) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            String line = br.readLine();
+            while (line != null) {
+                add(line);
+                line = br.readLine();
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    // Adds one line of a .gitignore file
+    public void add(String line) {
+        String p = trimTrailing(line);
+        if (p.length() == 0 || p.startsWith("#")) {
+            return;
+        }
+        boolean negate = false;
+        if (p.startsWith("!")) {
+            negate = true;
+            p = p.substring(1);
+        } else if (p.startsWith("\\#") || p.startsWith("\\!")) {
+            p = p.substring(1);
+        }
+        boolean dirOnly = false;
+        if (p.endsWith("/")) {
+            dirOnly = true;
+            p = p.substring(0, p.length() - 1);
+        }
+        // A slash anywhere but the end anchors the pattern to the top
+        boolean anchored = p.indexOf('/') != -1;
+        if (p.startsWith("/")) {
+            p = p.substring(1);
+        }
+        if (p.length() == 0) {
+            return;
+        }
+
+        int index = rules.size();
+        rules.add(negate);
+
+        Node n = root;
+        if (anchored == false) {
+            n = anyDepthChild(n);
+        }
+        String[] segs = p.split("/");
+        int i = 0;
+        while (i < segs.length) {
+            String seg = segs[i];
+            if (seg.length() == 0) {
+                i = i + 1;
+                continue;
+            }
+            if (seg.equals("**")) {
+                if (i == segs.length - 1) {
+                    // "dir/**" is everything inside dir, but not dir itself
+                    n = globChild(n, "*");
+                    mark(n, index, dirOnly);
+                }
+                n = anyDepthChild(n);
+            } else if (isLiteral(seg)) {
+                Node next = n.literal.get(seg);
+                if (next == null) {
+                    next = new Node();
+                    n.literal.put(seg, next);
+                }
+                n = next;
+            } else {
+                n = globChild(n, seg);
+            }
+            i = i + 1;
+        }
+        mark(n, index, dirOnly);
+    }
+
+    // True if path (relative to the working directory, "/" separated) is
+    // ignored. Callers walking a tree skip ignored directories, so the
+    // parents of path are assumed not to be ignored.
+    public boolean isIgnored(String path, boolean isDirectory) {
+        if (rules.size() == 0) {
+            return false;
+        }
+        String p = path.replace('\\', '/');
+        if (p.startsWith("./")) {
+            p = p.substring(2);
+        }
+        HashSet<Node> states = new HashSet<Node>();
+        addWithClosure(states, root);
+        int start = 0;
+        while (start <= p.length() && states.size() > 0) {
+            int slash = p.indexOf('/', start);
+            if (slash == -1) {
+                slash = p.length();
+            }
+            String seg = p.substring(start, slash);
+            if (seg.length() > 0) {
+                states = step(states, seg);
+            }
+            start = slash + 1;
+        }
+        int best = -1;
+        for (Node n : states) {
+            if (n.rule > best) {
+                best = n.rule;
+            }
+            if (isDirectory == true && n.dirRule > best) {
+                best = n.dirRule;
+            }
+        }
+        if (best == -1) {
+            return false;
+        }
+        return rules.get(best) == false;
+    }
+
+    private HashSet<Node> step(HashSet<Node> states, String seg) {
+        HashSet<Node> next = new HashSet<Node>();
+        for (Node n : states) {
+            Node lit = n.literal.get(seg);
+            if (lit != null) {
+                addWithClosure(next, lit);
+            }
+            int i = 0;
+            while (i < n.globs.size()) {
+                if (globMatches(n.globs.get(i), seg)) {
+                    addWithClosure(next, n.globNodes.get(i));
+                }
+                i = i + 1;
+            }
+            if (n.isAnyDepth == true) {
+                addWithClosure(next, n);
+            }
+        }
+        return next;
+    }
+
+    // A "**" child can match zero segments, so it is reached without one
+    private static void addWithClosure(HashSet<Node> set, Node n) {
+        while (n != null && set.add(n)) {
+            n = n.anyDepth;
+        }
+    }
+
+    private static Node anyDepthChild(Node n) {
+        if (n.anyDepth == null) {
+            n.anyDepth = new Node();
+            n.anyDepth.isAnyDepth = true;
+        }
+        return n.anyDepth;
+    }
+
+    private static Node globChild(Node n, String glob) {
+        int i = n.globs.indexOf(glob);
+        if (i != -1) {
+            return n.globNodes.get(i);
+        }
+        Node child = new Node();
+        n.globs.add(glob);
+        n.globNodes.add(child);
+        return child;
+    }
+
+    private static void mark(Node n, int index, boolean dirOnly) {
+        if (dirOnly == true) {
+            n.dirRule = Math.max(n.dirRule, index);
+        } else {
+            n.rule = Math.max(n.rule, index);
+        }
+    }
+
+    private static boolean isLiteral(String seg) {
+        int i = 0;
+        while (i < seg.length()) {
+            char c = seg.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '\\') {
+                return false;
+            }
+            i = i + 1;
+        }
+        return true;
+    }
+
+    // Trailing spaces are dropped unless escaped with a backslash
+    private static String trimTrailing(String line) {
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            end = end - 1;
+        }
+        while (end > 0 && line.charAt(end - 1) == ' ') {
+            if (end > 1 && line.charAt(end - 2) == '\\') {
+                break;
+            }
+            end = end - 1;
+        }
+        return line.substring(0, end);
+    }
+
+    // Glob match of one segment: * and ? never match "/", which a segment
+    // does not contain anyway
+    static boolean globMatches(String glob, String s) {
+        return globMatches(glob, 0, s, 0);
+    }
+
+    private static boolean globMatches(String g, int gi, String s, int si) {
+        while (gi < g.length()) {
+            char c = g.charAt(gi);
+            if (c == '*') {
+                while (gi < g.length() && g.charAt(gi) == '*') {
+                    gi = gi + 1;
+                }
+                if (gi == g.length()) {
+                    return true;
+                }
+                int k = si;
+                while (k <= s.length()) {
+                    if (globMatches(g, gi, s, k)) {
+                        return true;
+                    }
+                    k = k + 1;
+                }
+                return false;
+            }
+            if (si >= s.length()) {
+                return false;
+            }
+            if (c == '?') {
+                gi = gi + 1;
+                si = si + 1;
+            } else if (c == '[') {
+                int close = classEnd(g, gi);
+                if (close == -1) {
+                    // No closing bracket: a literal "["
+                    if (s.charAt(si) != '[') {
+                        return false;
+                    }
+                    gi = gi + 1;
+                    si = si + 1;
+                } else {
+                    if (!classMatches(g, gi + 1, close, s.charAt(si))) {
+                        return false;
+                    }
+                    gi = close + 1;
+                    si = si + 1;
+                }
+            } else {
+                if (c == '\\' && gi + 1 < g.length()) {
+                    gi = gi + 1;
+                    c = g.charAt(gi);
+                }
+                if (s.charAt(si) != c) {
+                    return false;
+                }
+                gi = gi + 1;
+                si = si + 1;
+            }
+        }
+        return si == s.length();
+    }
+
+    // Index of the "]" closing the class that starts at open, or -1
+    private static int classEnd(String g, int open) {
+        int i = open + 1;
+        if (i < g.length() && (g.charAt(i) == '!' || g.charAt(i) == '^')) {
+            i = i + 1;
+        }
+        if (i < g.length() && g.charAt(i) == ']') {
+            i = i + 1;
+        }
+        while (i < g.length()) {
+            if (g.charAt(i) == ']') {
+                return i;
+            }
+            i = i + 1;
+        }
+        return -1;
+    }
+
+    private static boolean classMatches(String g, int from, int to, char c) {
+        boolean negate = false;
+        int i = from;
+        if (i < to && (g.charAt(i) == '!' || g.charAt(i) == '^')) {
+            negate = true;
+            i = i + 1;
+        }
+        boolean found = false;
+        while (i < to) {
+            char lo = g.charAt(i);
+            if (i + 2 < to && g.charAt(i + 1) == '-') {
+                char hi = g.charAt(i + 2);
+                if (c >= lo && c <= hi) {
+                    found = true;
+                }
+                i = i + 3;
+            } else {
+                if (c == lo) {
+                    found = true;
+                }
+                i = i + 1;
+            }
+        }
+        return found != negate;
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IgnoreRulesTester {
+
+    public static void main(String[] args) {
+        try {
+            IgnoreRules r = IgnoreRules.parse("# build output\n"
+                    + "*.log\n"
+                    + "!keep.log\n"
+                    + "build/\n"
+                    + "/top.txt\n"
+                    + "docs/*.tmp\n"
+                    + "**/cache/**\n"
+                    + "data[0-9].bin\n"
+                    + "\\#notes\n");
+            boolean ok = true;
+            ok = ok && check(r, "a.log", false, true);
+            ok = ok && check(r, "src/deep/b.log", false, true);
+            ok = ok && check(r, "src/keep.log", false, false);
+            ok = ok && check(r, "build", true, true);
+            ok = ok && check(r, "src/build", true, true);
+            ok = ok && check(r, "build", false, false);
+            ok = ok && check(r, "top.txt", false, true);
+            ok = ok && check(r, "src/top.txt", false, false);
+            ok = ok && check(r, "docs/x.tmp", false, true);
+            ok = ok && check(r, "src/docs/x.tmp", false, false);
+            ok = ok && check(r, "a/cache/b/c.txt", false, true);
+            ok = ok && check(r, "a/cache", true, false);
+            ok = ok && check(r, "data7.bin", false, true);
+            ok = ok && check(r, "dataX.bin", false, false);
+            ok = ok && check(r, "#notes", false, true);
+            ok = ok && check(r, "./a.log", false, true);
+            ok = ok && !new IgnoreRules().isIgnored("anything", false);
+            if (ok == true) {
+                System.out.println("Pattern semantics: PASS");
+            } else {
+                System.out.println("Pattern semantics: FAIL");
+            }
+
+            deleteRecursively(new File("git"));
+            deleteRecursively(new File("iproj"));
+            ObjectStores.clearCache();
+            new Git().initializeRepository();
+            makeFile("iproj/a.txt", "a\n");
+            makeFile("iproj/debug.log", "log\n");
+            makeFile("iproj/src/b.txt", "b\n");
+            makeFile("iproj/node_modules/m/index.js", "m\n");
+            makeFile("iproj/node_modules/n/index.js", "n\n");
+            makeFile("iproj/out/c.class", "c\n");
+            makeFile(".gitignore", "node_modules/\n*.log\n");
+            makeFile("git/info/exclude", "/iproj/out/\n");
+
+            // ignored subtrees are never handed to the handler or listed
+            final AtomicInteger handled = new AtomicInteger();
+            DirScanner scanner = new DirScanner(4, IgnoreRules.load());
+            DirScanner.Node root = scanner.scan("iproj", new DirScanner.Handler() {
+                public String file(String path, BasicFileAttributes attrs) {
+                    handled.incrementAndGet();
+                    return path;
+                }
+            });
+            if (handled.get() == 2 && DirScanner.files(root).size() == 2) {
+                System.out.println("Ignored subtrees skipped: PASS");
+            } else {
+                System.out.println("Ignored subtrees skipped: FAIL " + handled.get());
+            }
+
+            // trees and the index leave ignored files out
+            String serial = new Tree().createTree("iproj");
+            String parallel = new Tree(4).createTree("iproj");
+            String text = new Tree().readObject(serial);
+            new Index().addDirectory("iproj");
+            Index idx = new Index();
+            boolean left = serial.equals(parallel) && text.indexOf("node_modules") == -1
+                    && text.indexOf("debug.log") == -1 && text.indexOf("iproj/out") == -1
+                    && idx.entries().size() == 2 && idx.lookup("iproj/src/b.txt") != null;
+            if (left == true) {
+                System.out.println("Tree and index skip ignored files: PASS");
+            } else {
+                System.out.println("Tree and index skip ignored files: FAIL " + idx.entries());
+            }
+
+            // status does not report ignored files, unless they are staged
+            idx.add("iproj/debug.log");
+            makeFile("iproj/debug.log", "log changed\n");
+            makeFile("iproj/other.log", "other\n");
+            final ArrayList<String> seen = new ArrayList<String>();
+            new Status(2).workingVsIndex("iproj", new Status.Listener() {
+                public void changed(char kind, String path) {
+                    seen.add(kind + " " + path);
+                }
+            });
+            if (seen.size() == 1 && seen.get(0).equals("M iproj/debug.log")) {
+                System.out.println("Status skips ignored files: PASS");
+            } else {
+                System.out.println("Status skips ignored files: FAIL " + seen);
+            }
+
+            new File(".gitignore").delete();
+            deleteRecursively(new File("iproj"));
+            deleteRecursively(new File("git"));
+        } catch (Exception e) {
+            new File(".gitignore").delete();
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean check(IgnoreRules r, String path, boolean dir, boolean expected) {
+        if (r.isIgnored(path, dir) != expected) {
+            System.out.println("  " + path + (dir ? "/" : "") + " should " + (expected ? "" : "not ") + "be ignored");
+            return false;
+        }
+        return true;
+    }
+
+    private static void makeFile(String name, String content) throws Exception {
+        File f = new File(name);
+        if (f.getParentFile() != null) {
+            f.getParentFile().mkdirs();
+        }
+        FileWriter w = new FileWriter(f, false);
+        w.write(content);
+        w.flush();
+        w.close();
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            File[] kids = f.listFiles();
+            if (kids != null) {
+                int i = 0;
+                while (i < kids.length) {
+                    deleteRecursively(kids[i]);
+                    i = i + 1;
+                }
+            }
+        }
+        f.delete();
+    }
+}
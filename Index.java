@@ -1,18 +1,27 @@
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 public class Index {
 
+    // Toggle for writing git/index in the binary format (see BinaryIndex).
+    // Either format is read regardless of this setting.
+    public static boolean BINARY = false;
+
     private final File repoDir;
     private final File objectsDir;
     private final File indexFile;
+    // Chunk counts of the last addAll or addDirectory (see Blob.CHUNK)
+    private ChunkStats chunkStats = new ChunkStats();
 
     public Index() {
         this.repoDir = new File("git");
@@ -33,47 +42,201 @@ public class Index {
     }
 
     public void add(String sourcePath) throws IOException {
+        addAll(Collections.singletonList(sourcePath));
+    }
+
+    // Stages every path with one read and one write of git/index. The result
+    // is the same as calling add on each path in order. Blobs are stored
+    // before taking git/index.lock, so several writers can hash at once;
+    // only the merge into the index is serialized.
+    public void addAll(Collection<String> sourcePaths) throws IOException {
         ensureStructure();
-    
-        String path = normalizePath(sourcePath);
-        String hash = Blob.createBlobFromPath(path);
-    
-        List<String> oldLines = readAll(indexFile.toPath());
-        List<String> newLines = new ArrayList<String>();
-    
-        boolean alreadyExact = false;
-    
+        chunkStats = new ChunkStats();
+
+        StatCache seen = StatCache.load();
+        ArrayList<String> paths = new ArrayList<String>();
+        ArrayList<String> hashes = new ArrayList<String>();
+        for (String sourcePath : sourcePaths) {
+            String path = normalizePath(sourcePath);
+            paths.add(path);
+            hashes.add(hashFor(path, seen));
+        }
+        merge(paths, hashes, seen);
+    }
+
+    public void addDirectory(String dirPath) throws IOException {
+        addDirectory(dirPath, DirScanner.DEFAULT_PARALLELISM);
+    }
+
+    // Stages every file under dirPath that is not ignored (see IgnoreRules),
+    // leaving out the repository's own git directory. The files are found
+    // and hashed by a DirScanner with
+    // parallelism stats and reads in flight, then merged like addAll, in
+    // the order the directories list them.
+    public void addDirectory(String dirPath, int parallelism) throws IOException {
+        ensureStructure();
+        chunkStats = new ChunkStats();
+
+        final StatCache seen = StatCache.load();
+        IgnoreRules ignore = IgnoreRules.load();
+        ignore.add("/" + normalizePath(repoDir.getPath()) + "/");
+        DirScanner scanner = new DirScanner(parallelism, ignore);
+        DirScanner.Node root = scanner.scan(dirPath, new DirScanner.Handler() {
+            public String file(String path, BasicFileAttributes attrs) throws IOException {
+                return hashFor(normalizePath(path), attrs, seen);
+            }
+        });
+
+        ArrayList<String> paths = new ArrayList<String>();
+        ArrayList<String> hashes = new ArrayList<String>();
+        List<DirScanner.Node> files = DirScanner.files(root);
         int i = 0;
-        while (i < oldLines.size()) {
-            String line = oldLines.get(i);
-            if (line != null) {
-                int space = line.indexOf(' ');
-                if (space != -1) {
-                    String left = line.substring(0, space);
-                    String right = line.substring(space + 1);
-                    if (right.equals(path)) {
-                        if (left.equals(hash)) {
-                            alreadyExact = true;
-                            newLines.add(line);
-                        }
-                    } else {
-                        newLines.add(line);
-                    }
-                } else {
-                    newLines.add(line);
+        while (i < files.size()) {
+            DirScanner.Node f = files.get(i);
+            paths.add(normalizePath(f.path));
+            hashes.add(f.value());
+            i = i + 1;
+        }
+        merge(paths, hashes, seen);
+    }
+
+    // Writes the hashed paths into git/index under git/index.lock, rereading
+    // the index first so entries other writers added meanwhile are kept.
+    // Checkout uses it for the files it writes.
+    void merge(List<String> paths, List<String> hashes, StatCache seen) throws IOException {
+        RepoLock lock = RepoLock.lock(indexFile);
+        try {
+            String oldStamp = CacheTree.stampOf(indexFile);
+            LinkedHashMap<String, String> entries = load(readAll(indexFile.toPath()));
+            StatCache stats = StatCache.load();
+            ArrayList<String> changed = new ArrayList<String>();
+
+            int i = 0;
+            while (i < paths.size()) {
+                String path = paths.get(i);
+                stats.copyFrom(seen, path);
+                String old = entries.get(path);
+                String line = hashes.get(i) + " " + path;
+                if (old == null || !old.equals(line)) {
+                    // A changed entry moves to the end, like a fresh add
+                    entries.remove(path);
+                    entries.put(path, line);
+                    changed.add(path);
                 }
+                i = i + 1;
+            }
+
+            writeExact(indexFile.toPath(), new ArrayList<String>(entries.values()));
+            stats.save();
+            updateCacheTree(oldStamp, changed);
+        } finally {
+            lock.release();
+        }
+    }
+
+    // How well chunked files deduplicated in the last addAll or addDirectory
+    public ChunkStats getChunkStats() {
+        return chunkStats;
+    }
+
+    public List<String> entries() throws IOException {
+        return readAll(indexFile.toPath());
+    }
+
+    // Returns the staged sha1 for a path, or null if it is not in the index
+    public String lookup(String sourcePath) throws IOException {
+        String path = normalizePath(sourcePath);
+        if (BinaryIndex.isBinary(indexFile)) {
+            return BinaryIndex.cached(indexFile).lookup(path);
+        }
+        List<String> lines = readAll(indexFile.toPath());
+        int i = 0;
+        while (i < lines.size()) {
+            String line = lines.get(i);
+            int space = line.indexOf(' ');
+            if (space != -1 && line.substring(space + 1).equals(path)) {
+                return line.substring(0, space);
+            }
+            i = i + 1;
+        }
+        return null;
+    }
+
+    // Rewrites git/index in the format picked by BINARY, e.g. to migrate
+    // an existing text index to the binary one
+    public void convert() throws IOException {
+        ensureStructure();
+        RepoLock lock = RepoLock.lock(indexFile);
+        try {
+            String oldStamp = CacheTree.stampOf(indexFile);
+            writeExact(indexFile.toPath(), readAll(indexFile.toPath()));
+            updateCacheTree(oldStamp, new ArrayList<String>());
+        } finally {
+            lock.release();
+        }
+    }
+
+    // Keeps git/index.tree in step with the index: directories above the
+    // changed paths are dropped, the rest stay valid for the new index
+    private void updateCacheTree(String oldStamp, List<String> changed) throws IOException {
+        CacheTree cache = CacheTree.load();
+        if (!cache.exists()) {
+            return;
+        }
+        if (!cache.matches(oldStamp)) {
+            cache.clear();
+        }
+        int i = 0;
+        while (i < changed.size()) {
+            cache.invalidate(changed.get(i));
+            i = i + 1;
+        }
+        cache.save(CacheTree.stampOf(indexFile));
+    }
+
+    // Index lines keyed by path, in file order. Lines that are not
+    // "<sha1> <path>" are kept under a key no path can have.
+    private static LinkedHashMap<String, String> load(List<String> lines) {
+        LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>();
+        int i = 0;
+        while (i < lines.size()) {
+            String line = lines.get(i);
+            int space = line.indexOf(' ');
+            if (space != -1) {
+                entries.put(line.substring(space + 1), line);
             } else {
-                newLines.add(line);
+                entries.put("\n" + i, line);
             }
             i = i + 1;
         }
-    
-        if (alreadyExact == false) {
-            newLines.add(hash + " " + path);
+        return entries;
+    }
+
+    // Reuses the hash from the stat cache when the file looks unchanged,
+    // otherwise stores the blob and records its new stat data
+    private String hashFor(String path, StatCache stats) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+        return hashFor(path, attrs, stats);
+    }
+
+    // May run on many scanner threads at once, so the cache is only
+    // touched while holding it
+    private String hashFor(String path, BasicFileAttributes attrs, StatCache stats) throws IOException {
+        String hash;
+        synchronized (stats) {
+            hash = stats.lookup(path, attrs);
         }
-    
-        writeExact(indexFile.toPath(), newLines);
-    }    
+        if (hash != null) {
+            if (ObjectStores.get().exists(hash)) {
+                return hash;
+            }
+        }
+        hash = Blob.createBlobFromPath(path, chunkStats);
+        synchronized (stats) {
+            stats.record(path, hash, attrs);
+        }
+        return hash;
+    }
 
     private static String normalizePath(String p) {
         if (p == null) {
@@ -102,6 +265,9 @@ public class Index {
     }
 
     private static List<String> readAll(Path p) throws IOException {
+        if (BinaryIndex.isBinary(p.toFile())) {
+            return BinaryIndex.cached(p.toFile()).lines();
+        }
         if (Files.exists(p)) {
             return Files.readAllLines(p, StandardCharsets.UTF_8);
         } else {
@@ -110,19 +276,24 @@ public class Index {
     }
 
     private static void writeExact(Path p, List<String> lines) throws IOException {
-        FileWriter w = new FileWriter(p.toFile(), false);
+        if (BINARY == true) {
+            BinaryIndex.write(p.toFile(), lines);
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
         int i = 0;
         while (i < lines.size()) {
-            w.write(lines.get(i));
+            sb.append(lines.get(i));
             if (i < lines.size() - 1) {
-                w.write("\n");
+                sb.append("\n");
             }
             i = i + 1;
         }
-        w.flush();
-        w.close();
+        AtomicFile.write(p.toFile(), sb.toString().getBytes(StandardCharsets.UTF_8));
     }
     public void resetObjects() {
+        // Closes the open packs first, which some platforms need to delete them
+        ObjectStores.clearCache();
         File objects = new File("git" + File.separator + "objects");
         if (objects.exists()) {
             deleteRecursively(objects);
@@ -146,10 +317,12 @@ public class Index {
                     parent.mkdirs();
                 }
             }
-            FileWriter w = new FileWriter(idx, false);
-            w.write("");
-            w.flush();
-            w.close();
+            RepoLock lock = RepoLock.lock(idx);
+            try {
+                AtomicFile.write(idx, new byte[0]);
+            } finally {
+                lock.release();
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
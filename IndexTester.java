@@ -57,6 +57,77 @@ public class IndexTester {
             } else {
                 System.out.println("All index checks: FAIL");
             }
+
+            // Re-adding unchanged files goes through the stat cache
+            idx.add("s1.txt");
+            List<String> again = readIndexLines();
+            boolean same = again.equals(lines);
+            boolean statted = statHasEntry("s1.txt");
+            if (same == true && statted == true) {
+                System.out.println("Re-add unchanged: PASS");
+            } else {
+                System.out.println("Re-add unchanged: FAIL");
+            }
+
+            // An unchanged file is not hashed again: point its stat cache
+            // entry at another blob and a re-add picks that id up as is
+            File s1 = new File("s1.txt");
+            s1.setLastModified(System.currentTimeMillis() - 10000);
+            idx.add("s1.txt");
+            String s2Hash = findHashFor(lines, "s2.txt");
+            rewriteStatHash("s1.txt", s2Hash);
+            idx.add("s1.txt");
+            if (s2Hash.equals(idx.lookup("s1.txt"))) {
+                System.out.println("Re-add skips hashing: PASS");
+            } else {
+                System.out.println("Re-add skips hashing: FAIL");
+            }
+            new File("git" + File.separator + "index.stat").delete();
+            idx.add("s1.txt");
+
+            // A file changed within the tick it was hashed in (same size,
+            // mtime put back) must still be rehashed after later saves move
+            // the stat file's time past it
+            long tick = System.currentTimeMillis() + 60000;
+            makeFile("racy.txt", "racy 1\n");
+            new File("racy.txt").setLastModified(tick);
+            idx.add("racy.txt");
+            makeFile("racy.txt", "racy 2\n");
+            new File("racy.txt").setLastModified(tick);
+            makeFile("later.txt", "later\n");
+            idx.add("later.txt");
+            new File("git" + File.separator + "index.stat").setLastModified(tick + 1000);
+            idx.add("racy.txt");
+            String racy = idx.lookup("racy.txt");
+            if (racy != null && racy.equals(Blob.hashFile(new File("racy.txt")))) {
+                System.out.println("Racy file rehashed: PASS");
+            } else {
+                System.out.println("Racy file rehashed: FAIL");
+            }
+            new File("racy.txt").delete();
+            new File("later.txt").delete();
+            writeIndex(lines.get(0) + "\n" + lines.get(1) + "\n" + lines.get(2));
+
+            // A batch add must leave the same index as repeated single adds
+            String stale = "0000000000000000000000000000000000000000 s1.txt";
+            writeIndex(stale + "\n" + lines.get(1));
+            idx.add("s1.txt");
+            idx.add("s3.txt");
+            idx.add("s1.txt");
+            List<String> single = readIndexLines();
+
+            writeIndex(stale + "\n" + lines.get(1));
+            ArrayList<String> batch = new ArrayList<String>();
+            batch.add("s1.txt");
+            batch.add("s3.txt");
+            batch.add("s1.txt");
+            idx.addAll(batch);
+            List<String> batched = readIndexLines();
+            if (batched.equals(single)) {
+                System.out.println("Batch add matches single adds: PASS");
+            } else {
+                System.out.println("Batch add matches single adds: FAIL");
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -108,6 +179,51 @@ public class IndexTester {
         }
     }
 
+    private static void writeIndex(String content) throws Exception {
+        FileWriter w = new FileWriter(new File("git" + File.separator + "index"), false);
+        w.write(content);
+        w.flush();
+        w.close();
+    }
+
+    // Replaces the sha1 git/index.stat has for fileName
+    private static void rewriteStatHash(String fileName, String sha) throws Exception {
+        File stat = new File("git" + File.separator + "index.stat");
+        List<String> lines = Files.readAllLines(stat.toPath(), StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < lines.size()) {
+            String line = lines.get(i);
+            String[] parts = line.split(" ", 5);
+            if (parts.length == 5 && parts[4].equals(fileName)) {
+                line = parts[0] + " " + parts[1] + " " + parts[2] + " " + sha + " " + parts[4];
+            }
+            sb.append(line).append("\n");
+            i = i + 1;
+        }
+        Files.write(stat.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean statHasEntry(String fileName) {
+        try {
+            File stat = new File("git" + File.separator + "index.stat");
+            if (!stat.exists()) {
+                return false;
+            }
+            List<String> lines = Files.readAllLines(stat.toPath(), StandardCharsets.UTF_8);
+            int i = 0;
+            while (i < lines.size()) {
+                if (lines.get(i).endsWith(" " + fileName)) {
+                    return true;
+                }
+                i = i + 1;
+            }
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
     private static boolean verifyEntry(List<String> lines, String fileName) {
         try {
             String hashFromIndex = findHashFor(lines, fileName);
@@ -116,10 +232,10 @@ public class IndexTester {
             }
 
             File src = new File(fileName);
-            String recomputed = Blob.sha1FromFile(src);
+            String recomputed = Blob.hashFile(src);
             if (recomputed.equals(hashFromIndex)) {
-                File obj = new File("git" + File.separator + "objects" + File.separator + hashFromIndex);
-                if (obj.exists()) {
+                File obj = ObjectPath.find(hashFromIndex);
+                if (obj != null) {
                     if (obj.isFile()) {
                         return true;
                     } else {
@@ -0,0 +1,210 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// One file per object under git/objects (see ObjectPath), falling back to
+// packfiles for reads. New objects are written to a temp file and renamed
+// into place, so a reader never sees a half-written object.
+public class LooseObjectStore implements ObjectStore {
+
+    public boolean exists(String id) throws IOException {
+        if (ObjectPath.exists(id)) {
+            return true;
+        }
+        return Pack.contains(id);
+    }
+
+    public byte[] get(String id) throws IOException {
+        File f = ObjectPath.find(id);
+        if (f != null) {
+            return ObjectCodec.decode(Files.readAllBytes(f.toPath()));
+        }
+        return Pack.read(id);
+    }
+
+    public InputStream open(String id) throws IOException {
+        File f = ObjectPath.find(id);
+        if (f != null) {
+            return ObjectCodec.decode(new FileInputStream(f));
+        }
+        byte[] packed = Pack.read(id);
+        if (packed == null) {
+            return null;
+        }
+        return new ByteArrayInputStream(packed);
+    }
+
+    // Packs only hold untyped content (see Pack.packObjects)
+    public String typeOf(String id) throws IOException {
+        File f = ObjectPath.find(id);
+        if (f == null) {
+            return null;
+        }
+        return ObjectCodec.typeOf(f);
+    }
+
+    // The loose file of an object stored as is (not compressed), for callers
+    // that copy it with FileChannel.transferTo; null for anything else
+    public File rawFile(String id) throws IOException {
+        File f = ObjectPath.find(id);
+        if (f == null) {
+            return null;
+        }
+        byte[] two = new byte[2];
+        FileInputStream in = new FileInputStream(f);
+        try {
+            if (in.read(two) == 2 && ObjectCodec.isZlibHeader(two[0] & 0xff, two[1] & 0xff)) {
+                return null;
+            }
+        } finally {
+            in.close();
+        }
+        return f;
+    }
+
+    public void put(String id, byte[] data) throws IOException {
+        if (exists(id)) {
+            return;
+        }
+        ObjectWriter w = newWriter();
+        try {
+            w.write(data);
+            w.close();
+            w.commit(id);
+        } finally {
+            w.abort();
+        }
+    }
+
+    public ObjectWriter newWriter() throws IOException {
+        File objectsDir = ObjectPath.objectsDir();
+        if (!objectsDir.exists()) {
+            objectsDir.mkdirs();
+        }
+        return new TempFileWriter(File.createTempFile("tmp_obj_", null, objectsDir));
+    }
+
+    public List<String> list() throws IOException {
+        ArrayList<String> out = new ArrayList<String>();
+        File[] items = ObjectPath.objectsDir().listFiles();
+        if (items != null) {
+            int i = 0;
+            while (i < items.length) {
+                File f = items[i];
+                String name = f.getName();
+                if (f.isFile() && ObjectPath.isObjectName(name)) {
+                    out.add(name);
+                } else if (f.isDirectory() && name.length() == 2) {
+                    String[] kids = f.list();
+                    if (kids != null) {
+                        int j = 0;
+                        while (j < kids.length) {
+                            if (ObjectPath.isObjectName(name + kids[j])) {
+                                out.add(name + kids[j]);
+                            }
+                            j = j + 1;
+                        }
+                    }
+                }
+                i = i + 1;
+            }
+        }
+        out.addAll(Pack.listIds());
+        return out;
+    }
+
+    private class TempFileWriter extends ObjectWriter {
+        private final File temp;
+        private final FileOutputStream file;
+        private final OutputStream out;
+
+        TempFileWriter(File temp) throws IOException {
+            this.temp = temp;
+            this.file = new FileOutputStream(temp);
+            this.out = new BufferedOutputStream(file, 8192);
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+
+        // File to file copies stay in the kernel (sendfile/copy_file_range)
+        public void transferFrom(FileChannel src, long position, long count) throws IOException {
+            out.flush();
+            FileChannel dst = file.getChannel();
+            long end = position + count;
+            while (position < end) {
+                long n = src.transferTo(position, end - position, dst);
+                if (n <= 0) {
+                    if (position >= src.size()) {
+                        throw new IOException("File ended early at " + position + " of " + end);
+                    }
+                    // transferTo may do nothing at all; fall back to reading
+                    super.transferFrom(src, position, end - position);
+                    return;
+                }
+                position = position + n;
+            }
+        }
+
+        public void commit(String id) throws IOException {
+            if (exists(id)) {
+                temp.delete();
+                return;
+            }
+            File target = ObjectPath.forWrite(id);
+            // The bytes must be on disk before the name is
+            AtomicFile.force(temp);
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // Someone else stored the same object first
+                temp.delete();
+                return;
+            } catch (AtomicMoveNotSupportedException e) {
+                if (!target.exists()) {
+                    Files.move(temp.toPath(), target.toPath());
+                } else {
+                    temp.delete();
+                    return;
+                }
+            }
+            AtomicFile.forceDir(target.getParentFile());
+        }
+
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Closing a temp file we are about to delete
+            }
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Object standing in for a chunked file (see Blob.CHUNK). Its content is
+// text, like trees and commits:
+//   manifest <file size> <chunk count>
+//   chunk <id> <size>
+//   ...
+// The manifest's id is the file's id in the index and in trees. It is
+// always stored compressed under a "manifest" header (see ObjectCodec), and
+// only objects stored that way are expanded: a file whose content merely
+// reads like a manifest stays an ordinary blob.
+public class Manifest {
+
+    public static final String TYPE = "manifest";
+
+    private final long size;
+    private final ArrayList<String> ids = new ArrayList<String>();
+    private final ArrayList<Long> sizes = new ArrayList<Long>();
+
+    public Manifest() {
+        this.size = -1;
+    }
+
+    private Manifest(long size) {
+        this.size = size;
+    }
+
+    public void add(String id, long chunkSize) {
+        ids.add(id);
+        sizes.add(chunkSize);
+    }
+
+    public int count() {
+        return ids.size();
+    }
+
+    public String id(int i) {
+        return ids.get(i);
+    }
+
+    public long size(int i) {
+        return sizes.get(i);
+    }
+
+    // Size of the whole file
+    public long size() {
+        if (size >= 0) {
+            return size;
+        }
+        long total = 0;
+        int i = 0;
+        while (i < sizes.size()) {
+            total = total + sizes.get(i);
+            i = i + 1;
+        }
+        return total;
+    }
+
+    public List<String> ids() {
+        return ids;
+    }
+
+    public byte[] toBytes() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("manifest ").append(size()).append(" ").append(ids.size());
+        int i = 0;
+        while (i < ids.size()) {
+            sb.append("\nchunk ").append(ids.get(i)).append(" ").append(sizes.get(i));
+            i = i + 1;
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Stored form of this manifest
+    public byte[] encode(int level) throws IOException {
+        return ObjectCodec.encode(TYPE, toBytes(), level);
+    }
+
+    // The manifest stored under id, whose content is data, or null if that
+    // object is not one. The store is only asked for the type when the
+    // content parses.
+    public static Manifest of(ObjectStore store, String id, byte[] data) throws IOException {
+        Manifest m = parse(data);
+        if (m == null || !TYPE.equals(store.typeOf(id))) {
+            return null;
+        }
+        return m;
+    }
+
+    // The manifest text in data, or null if it is not one. Says nothing of
+    // how the object was stored; see of.
+    public static Manifest parse(byte[] data) {
+        if (data == null || data.length < 9 || !startsWith(data, "manifest ")) {
+            return null;
+        }
+        String[] lines = new String(data, StandardCharsets.UTF_8).split("\n", -1);
+        String[] head = lines[0].split(" ");
+        if (head.length != 3) {
+            return null;
+        }
+        try {
+            long total = Long.parseLong(head[1]);
+            int count = Integer.parseInt(head[2]);
+            if (total < 0 || count != lines.length - 1) {
+                return null;
+            }
+            Manifest m = new Manifest(total);
+            long sum = 0;
+            int i = 1;
+            while (i < lines.length) {
+                String[] parts = lines[i].split(" ");
+                if (parts.length != 3 || !parts[0].equals("chunk") || !Hex.isHex(parts[1])) {
+                    return null;
+                }
+                long n = Long.parseLong(parts[2]);
+                if (n <= 0) {
+                    return null;
+                }
+                m.add(parts[1], n);
+                sum = sum + n;
+                i = i + 1;
+            }
+            if (sum != total) {
+                return null;
+            }
+            return m;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean startsWith(byte[] data, String prefix) {
+        int i = 0;
+        while (i < prefix.length()) {
+            if (data[i] != prefix.charAt(i)) {
+                return false;
+            }
+            i = i + 1;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,90 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps every object in memory. Meant for tests and benchmarks that should
+// not measure the disk. Keys are the hex ids callers pass in, so a lookup
+// allocates nothing.
+public class MemoryObjectStore implements ObjectStore {
+
+    private final ConcurrentHashMap<String, byte[]> objects = new ConcurrentHashMap<String, byte[]>();
+
+    public boolean exists(String id) {
+        return objects.containsKey(id);
+    }
+
+    public byte[] get(String id) throws IOException {
+        byte[] data = objects.get(id);
+        if (data == null) {
+            return null;
+        }
+        byte[] content = ObjectCodec.decode(data);
+        if (content == data) {
+            return data.clone();
+        }
+        return content;
+    }
+
+    public InputStream open(String id) throws IOException {
+        byte[] data = objects.get(id);
+        if (data == null) {
+            return null;
+        }
+        return ObjectCodec.decode(new ByteArrayInputStream(data));
+    }
+
+    public String typeOf(String id) {
+        byte[] data = objects.get(id);
+        if (data == null) {
+            return null;
+        }
+        return ObjectCodec.typeOf(data, data.length);
+    }
+
+    public void put(String id, byte[] data) {
+        objects.putIfAbsent(checked(id), data.clone());
+    }
+
+    public ObjectWriter newWriter() {
+        return new ObjectWriter() {
+            private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+            public void write(int b) {
+                buffer.write(b);
+            }
+
+            public void write(byte[] b, int off, int len) {
+                buffer.write(b, off, len);
+            }
+
+            public void commit(String id) {
+                objects.putIfAbsent(checked(id), buffer.toByteArray());
+                buffer = new ByteArrayOutputStream();
+            }
+
+            public void abort() {
+                buffer = new ByteArrayOutputStream();
+            }
+        };
+    }
+
+    public List<String> list() {
+        return new ArrayList<String>(objects.keySet());
+    }
+
+    // Only well-formed ids go in, so a bad id is never found later
+    private static String checked(String id) {
+        if (!Hex.isHex(id)) {
+            throw new IllegalArgumentException("Bad object id: " + id);
+        }
+        return id;
+    }
+
+    public int size() {
+        return objects.size();
+    }
+}
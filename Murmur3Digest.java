@@ -0,0 +1,166 @@
+import java.security.MessageDigest;
+
+// MurmurHash3 x64 128 (seed 0) as a MessageDigest, so it can stand in for
+// SHA-1 anywhere a digest is used. The 16-byte result is h1 then h2, each
+// little-endian, the same bytes other MurmurHash3 libraries print. Much
+// faster than SHA-1, but anyone can make collisions on purpose.
+public class Murmur3Digest extends MessageDigest implements Cloneable {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private long h1;
+    private long h2;
+    private long length;
+    // Bytes of a block not yet full
+    private byte[] tail = new byte[16];
+    private int tailLen;
+
+    public Murmur3Digest() {
+        super("MurmurHash3-128");
+        engineReset();
+    }
+
+    protected int engineGetDigestLength() {
+        return 16;
+    }
+
+    protected void engineReset() {
+        h1 = 0;
+        h2 = 0;
+        length = 0;
+        tailLen = 0;
+    }
+
+    protected void engineUpdate(byte input) {
+        tail[tailLen] = input;
+        tailLen = tailLen + 1;
+        length = length + 1;
+        if (tailLen == 16) {
+            block(tail, 0);
+            tailLen = 0;
+        }
+    }
+
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        length = length + len;
+        int i = offset;
+        int end = offset + len;
+        if (tailLen > 0) {
+            while (tailLen < 16 && i < end) {
+                tail[tailLen] = input[i];
+                tailLen = tailLen + 1;
+                i = i + 1;
+            }
+            if (tailLen < 16) {
+                return;
+            }
+            block(tail, 0);
+            tailLen = 0;
+        }
+        while (end - i >= 16) {
+            block(input, i);
+            i = i + 16;
+        }
+        while (i < end) {
+            tail[tailLen] = input[i];
+            tailLen = tailLen + 1;
+            i = i + 1;
+        }
+    }
+
+    protected byte[] engineDigest() {
+        long k1 = 0;
+        long k2 = 0;
+        int i = tailLen - 1;
+        while (i >= 8) {
+            k2 = (k2 << 8) | (tail[i] & 0xffL);
+            i = i - 1;
+        }
+        while (i >= 0) {
+            k1 = (k1 << 8) | (tail[i] & 0xffL);
+            i = i - 1;
+        }
+        if (tailLen > 8) {
+            k2 = k2 * C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 = k2 * C1;
+            h2 = h2 ^ k2;
+        }
+        if (tailLen > 0) {
+            k1 = k1 * C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 = k1 * C2;
+            h1 = h1 ^ k1;
+        }
+
+        h1 = h1 ^ length;
+        h2 = h2 ^ length;
+        h1 = h1 + h2;
+        h2 = h2 + h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 = h1 + h2;
+        h2 = h2 + h1;
+
+        byte[] out = new byte[16];
+        putLong(out, 0, h1);
+        putLong(out, 8, h2);
+        engineReset();
+        return out;
+    }
+
+    public Object clone() throws CloneNotSupportedException {
+        Murmur3Digest copy = (Murmur3Digest) super.clone();
+        copy.tail = tail.clone();
+        return copy;
+    }
+
+    private void block(byte[] b, int off) {
+        long k1 = getLong(b, off);
+        long k2 = getLong(b, off + 8);
+
+        k1 = k1 * C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 = k1 * C2;
+        h1 = h1 ^ k1;
+        h1 = Long.rotateLeft(h1, 27);
+        h1 = h1 + h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        k2 = k2 * C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 = k2 * C1;
+        h2 = h2 ^ k2;
+        h2 = Long.rotateLeft(h2, 31);
+        h2 = h2 + h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long fmix(long k) {
+        k = k ^ (k >>> 33);
+        k = k * 0xff51afd7ed558ccdL;
+        k = k ^ (k >>> 33);
+        k = k * 0xc4ceb9fe1a85ec53L;
+        k = k ^ (k >>> 33);
+        return k;
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long v = 0;
+        int i = 7;
+        while (i >= 0) {
+            v = (v << 8) | (b[off + i] & 0xffL);
+            i = i - 1;
+        }
+        return v;
+    }
+
+    private static void putLong(byte[] b, int off, long v) {
+        int i = 0;
+        while (i < 8) {
+            b[off + i] = (byte) (v >>> (8 * i));
+            i = i + 1;
+        }
+    }
+}
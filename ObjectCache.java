@@ -0,0 +1,276 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// LRU cache in front of another ObjectStore. Object contents are kept up to
+// a total byte budget (least recently used evicted first). Objects are
+// immutable, so cached contents never go stale.
+//
+// Ids that were looked up and not found are remembered too, but another
+// process may store them at any time. A read that hits one asks the inner
+// store again, since a wrong "missing" there is an error. exists() trusts
+// one for MISSING_MILLIS: callers use it to skip storing an object, and at
+// worst they store one that is already there, which the store drops.
+public class ObjectCache implements ObjectStore {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final int MAX_MISSING = 10000;
+    private static final long MISSING_MILLIS = 1000;
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private static class Entry {
+        byte[] data;
+        String text;
+        long weight;
+
+        Entry(byte[] data) {
+            this.data = data;
+            this.weight = data.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    private final ObjectStore inner;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    // Missing ids and when they were found missing
+    private final LinkedHashMap<String, Long> missing = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_MISSING;
+        }
+    };
+    private long bytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long missingHits = 0;
+
+    public ObjectCache(ObjectStore inner) {
+        this(inner, DEFAULT_MAX_BYTES);
+    }
+
+    public ObjectCache(ObjectStore inner, long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative: " + maxBytes);
+        }
+        this.inner = inner;
+        this.maxBytes = maxBytes;
+    }
+
+    public ObjectStore getInner() {
+        return inner;
+    }
+
+    public ObjectStore uncached() {
+        return inner.uncached();
+    }
+
+    public File rawFile(String id) throws IOException {
+        return inner.rawFile(id);
+    }
+
+    public boolean exists(String id) throws IOException {
+        synchronized (this) {
+            if (entries.containsKey(id)) {
+                hits = hits + 1;
+                return true;
+            }
+            Long since = missing.get(id);
+            if (since != null && System.currentTimeMillis() - since < MISSING_MILLIS) {
+                missingHits = missingHits + 1;
+                return false;
+            }
+            misses = misses + 1;
+        }
+        boolean found = inner.exists(id);
+        synchronized (this) {
+            if (found == false) {
+                missing.put(id, System.currentTimeMillis());
+            } else {
+                missing.remove(id);
+            }
+        }
+        return found;
+    }
+
+    public byte[] get(String id) throws IOException {
+        Entry e = load(id);
+        if (e == null) {
+            return null;
+        }
+        return e.data.clone();
+    }
+
+    // Object contents decoded as UTF-8; the string is cached with the bytes
+    public String getText(String id) throws IOException {
+        Entry e = load(id);
+        if (e == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (e.text == null) {
+                e.text = new String(e.data, StandardCharsets.UTF_8);
+                if (entries.get(id) == e) {
+                    e.weight = e.weight + 2L * e.text.length();
+                    bytes = bytes + 2L * e.text.length();
+                    evict();
+                }
+            }
+            return e.text;
+        }
+    }
+
+    public InputStream open(String id) throws IOException {
+        synchronized (this) {
+            Entry e = entries.get(id);
+            if (e != null) {
+                hits = hits + 1;
+                return new ByteArrayInputStream(e.data);
+            }
+        }
+        // Streams are for large objects, so they are not pulled into the cache
+        return inner.open(id);
+    }
+
+    public void put(String id, byte[] data) throws IOException {
+        inner.put(id, data);
+        synchronized (this) {
+            missing.remove(id);
+        }
+    }
+
+    public ObjectWriter newWriter() throws IOException {
+        final ObjectWriter w = inner.newWriter();
+        return new ObjectWriter() {
+            public void write(int b) throws IOException {
+                w.write(b);
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                w.write(b, off, len);
+            }
+
+            public void flush() throws IOException {
+                w.flush();
+            }
+
+            public void close() throws IOException {
+                w.close();
+            }
+
+            public void transferFrom(FileChannel src, long position, long count) throws IOException {
+                w.transferFrom(src, position, count);
+            }
+
+            public void commit(String id) throws IOException {
+                w.commit(id);
+                synchronized (ObjectCache.this) {
+                    missing.remove(id);
+                }
+            }
+
+            public void abort() {
+                w.abort();
+            }
+        };
+    }
+
+    public List<String> list() throws IOException {
+        return inner.list();
+    }
+
+    // Not cached: only asked for objects that read like a manifest
+    public String typeOf(String id) throws IOException {
+        return inner.typeOf(id);
+    }
+
+    // Drops everything, e.g. after objects were deleted behind the cache
+    public synchronized void clear() {
+        entries.clear();
+        missing.clear();
+        bytes = 0;
+    }
+
+    private Entry load(String id) throws IOException {
+        synchronized (this) {
+            Entry e = entries.get(id);
+            if (e != null) {
+                hits = hits + 1;
+                return e;
+            }
+            if (missing.containsKey(id)) {
+                missingHits = missingHits + 1;
+            } else {
+                misses = misses + 1;
+            }
+        }
+
+        byte[] data = inner.get(id);
+        synchronized (this) {
+            if (data == null) {
+                missing.put(id, System.currentTimeMillis());
+                return null;
+            }
+            missing.remove(id);
+            Entry e = entries.get(id);
+            if (e != null) {
+                return e;
+            }
+            e = new Entry(data);
+            // One huge object should not flush the whole cache
+            if (e.weight <= maxBytes / 8) {
+                entries.put(id, e);
+                bytes = bytes + e.weight;
+                evict();
+            }
+            return e;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            bytes = bytes - eldest.getValue().weight;
+            it.remove();
+            evictions = evictions + 1;
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getMissingHits() {
+        return missingHits;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    public synchronized String toString() {
+        return "ObjectCache[objects=" + entries.size() + " bytes=" + bytes + "/" + maxBytes
+                + " hits=" + hits + " misses=" + misses + " evictions=" + evictions
+                + " missingHits=" + missingHits + "]";
+    }
+}
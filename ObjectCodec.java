@@ -0,0 +1,315 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Compressed object encoding, like a git loose object: zlib of
+//   "<type> <size>\0" + content
+// The id is still the hash of the content alone, so an object has the same
+// id compressed or not. Stores keep whichever bytes they were given and
+// decode on the way out: anything that does not start with a zlib header
+// and a valid "<type> <size>\0" is returned as is. Blob stores content that
+// itself starts with a zlib header compressed, so raw objects never look
+// compressed.
+//
+// Deflaters and Inflaters hold native memory and are slow to create, so
+// they are pooled.
+public class ObjectCodec {
+
+    private static final int POOL_SIZE = 16;
+    private static final int MAX_HEADER = 32;
+
+    private static final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private static final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+
+    // A pooled Deflater set to level; give it back with release
+    public static Deflater deflater(int level) {
+        Deflater d = deflaters.poll();
+        if (d == null) {
+            d = new Deflater(level);
+        } else {
+            d.setLevel(level);
+        }
+        return d;
+    }
+
+    public static void release(Deflater d) {
+        d.reset();
+        if (deflaters.size() < POOL_SIZE) {
+            deflaters.offer(d);
+        } else {
+            d.end();
+        }
+    }
+
+    public static Inflater inflater() {
+        Inflater i = inflaters.poll();
+        if (i == null) {
+            i = new Inflater();
+        }
+        return i;
+    }
+
+    public static void release(Inflater i) {
+        i.reset();
+        if (inflaters.size() < POOL_SIZE) {
+            inflaters.offer(i);
+        } else {
+            i.end();
+        }
+    }
+
+    // Stream for writing one compressed object of the given size into out.
+    // Closing it finishes the zlib stream and closes out.
+    public static OutputStream compress(OutputStream out, String type, long size, Deflater deflater) throws IOException {
+        OutputStream z = new DeflaterOutputStream(out, deflater, 8192);
+        z.write(header(type, size));
+        return z;
+    }
+
+    public static byte[] header(String type, long size) {
+        return (type + " " + size + "\0").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // First two bytes of a zlib stream: deflate method, and a check value
+    // that makes them a multiple of 31
+    public static boolean isZlibHeader(int b0, int b1) {
+        return (b0 & 0x0f) == 8 && (b0 >>> 4) <= 7 && ((b0 << 8) | b1) % 31 == 0;
+    }
+
+    // Content of stored object bytes, inflated if they are compressed
+    public static byte[] decode(byte[] stored) throws IOException {
+        if (stored.length < 2 || !isZlibHeader(stored[0] & 0xff, stored[1] & 0xff)) {
+            return stored;
+        }
+        Inflater inflater = inflater();
+        try {
+            inflater.setInput(stored);
+            byte[] head = new byte[MAX_HEADER];
+            int n = 0;
+            int nul = -1;
+            while (nul == -1 && n < head.length && !inflater.finished()) {
+                int got = inflater.inflate(head, n, 1);
+                if (got == 0) {
+                    return stored;
+                }
+                if (head[n] == 0) {
+                    nul = n;
+                }
+                n = n + got;
+            }
+            long size = parseHeader(head, nul);
+            if (size < 0 || size > Integer.MAX_VALUE) {
+                return stored;
+            }
+            byte[] out = new byte[(int) size];
+            int off = 0;
+            while (off < out.length) {
+                int got = inflater.inflate(out, off, out.length - off);
+                if (got == 0) {
+                    // Ended early or needs input we do not have: not one of ours
+                    return stored;
+                }
+                off = off + got;
+            }
+            // Exactly size bytes, and the stream must end with the file
+            byte[] extra = new byte[1];
+            if (inflater.inflate(extra) != 0 || !inflater.finished() || inflater.getRemaining() != 0) {
+                return stored;
+            }
+            return out;
+        } catch (DataFormatException e) {
+            return stored;
+        } finally {
+            release(inflater);
+        }
+    }
+
+    // Same as decode, for a stream. Only the header is checked before the
+    // content is returned, so a damaged stream shows up as an IOException
+    // while reading.
+    public static InputStream decode(InputStream stored) throws IOException {
+        final BufferedInputStream in = new BufferedInputStream(stored, 65536);
+        in.mark(65536);
+        int b0 = in.read();
+        int b1 = in.read();
+        in.reset();
+        if (b0 == -1 || b1 == -1 || !isZlibHeader(b0, b1)) {
+            return in;
+        }
+        in.mark(65536);
+        final Inflater inflater = inflater();
+        InflaterInputStream z = new InflaterInputStream(in, inflater, 512) {
+            private boolean released = false;
+
+            public void close() throws IOException {
+                super.close();
+                if (released == false) {
+                    released = true;
+                    release(inflater);
+                }
+            }
+        };
+        byte[] head = new byte[MAX_HEADER];
+        int n = 0;
+        int nul = -1;
+        try {
+            while (nul == -1 && n < head.length) {
+                int b = z.read();
+                if (b == -1) {
+                    break;
+                }
+                head[n] = (byte) b;
+                if (b == 0) {
+                    nul = n;
+                }
+                n = n + 1;
+            }
+        } catch (IOException e) {
+            nul = -1;
+        }
+        if (parseHeader(head, nul) < 0) {
+            // Looked like zlib but is not an object of ours; hand back the bytes
+            release(inflater);
+            in.reset();
+            return in;
+        }
+        return z;
+    }
+
+    // Content size of the object stored in file: the size in its header if
+    // it is compressed, otherwise the file's length. Only the start of the
+    // file is read.
+    public static long contentSize(File file) throws IOException {
+        String head = headerOf(file);
+        if (head == null) {
+            return file.length();
+        }
+        return Long.parseLong(head.substring(head.indexOf(' ') + 1));
+    }
+
+    // Type in the header of the object stored in file, e.g. "manifest", or
+    // null if the file holds plain content
+    public static String typeOf(File file) throws IOException {
+        return typeOf(headerOf(file));
+    }
+
+    // Same for the first n bytes of stored object bytes
+    public static String typeOf(byte[] stored, int n) {
+        return typeOf(headerOf(stored, n));
+    }
+
+    private static String typeOf(String head) {
+        if (head == null) {
+            return null;
+        }
+        return head.substring(0, head.indexOf(' '));
+    }
+
+    private static String headerOf(File file) throws IOException {
+        byte[] start = new byte[512];
+        int n = 0;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            while (n < start.length) {
+                int r = in.read(start, n, start.length - n);
+                if (r == -1) {
+                    break;
+                }
+                n = n + r;
+            }
+        } finally {
+            in.close();
+        }
+        return headerOf(start, n);
+    }
+
+    // "<type> <size>" inflated from the start of stored bytes, or null if
+    // they are not compressed
+    private static String headerOf(byte[] start, int n) {
+        if (n < 2 || !isZlibHeader(start[0] & 0xff, start[1] & 0xff)) {
+            return null;
+        }
+        Inflater inflater = inflater();
+        try {
+            inflater.setInput(start, 0, n);
+            byte[] head = new byte[MAX_HEADER];
+            int got = 0;
+            int nul = -1;
+            while (nul == -1 && got < head.length && !inflater.finished()) {
+                if (inflater.inflate(head, got, 1) == 0) {
+                    break;
+                }
+                if (head[got] == 0) {
+                    nul = got;
+                }
+                got = got + 1;
+            }
+            if (parseHeader(head, nul) < 0) {
+                return null;
+            }
+            return new String(head, 0, nul, StandardCharsets.US_ASCII);
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            release(inflater);
+        }
+    }
+
+    // Size from "<type> <size>" in head[0..nul), or -1 if it is not one
+    private static long parseHeader(byte[] head, int nul) {
+        if (nul <= 0) {
+            return -1;
+        }
+        String s = new String(head, 0, nul, StandardCharsets.US_ASCII);
+        int space = s.indexOf(' ');
+        if (space < 1 || space == s.length() - 1) {
+            return -1;
+        }
+        int i = 0;
+        while (i < space) {
+            char c = s.charAt(i);
+            if (c < 'a' || c > 'z') {
+                return -1;
+            }
+            i = i + 1;
+        }
+        i = space + 1;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            i = i + 1;
+        }
+        try {
+            return Long.parseLong(s.substring(space + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Compressed encoding of content, for callers that have it in memory
+    public static byte[] encode(String type, byte[] content, int level) throws IOException {
+        Deflater d = deflater(level);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2 + 64);
+            OutputStream out = compress(bytes, type, content.length, d);
+            out.write(content);
+            out.close();
+            return bytes.toByteArray();
+        } finally {
+            release(d);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// Where an object lives under git/objects. New objects go to the fan-out
+// layout objects/ab/cdef... (first two hex digits as a directory) unless
+// FANOUT is off; lookups check both layouts so flat stores keep working.
+public class ObjectPath {
+
+    public static boolean FANOUT = true;
+
+    public static File objectsDir() {
+        return new File("git" + File.separator + "objects");
+    }
+
+    public static File fanout(String hash) {
+        File dir = new File(objectsDir(), hash.substring(0, 2));
+        return new File(dir, hash.substring(2));
+    }
+
+    public static File flat(String hash) {
+        return new File(objectsDir(), hash);
+    }
+
+    // Target for a new object; creates the fan-out directory if needed
+    public static File forWrite(String hash) {
+        if (FANOUT == false) {
+            return flat(hash);
+        }
+        File f = fanout(hash);
+        File dir = f.getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return f;
+    }
+
+    // Existing object file in either layout, or null
+    public static File find(String hash) {
+        if (!isObjectName(hash)) {
+            return null;
+        }
+        File f = fanout(hash);
+        if (f.isFile()) {
+            return f;
+        }
+        f = flat(hash);
+        if (f.isFile()) {
+            return f;
+        }
+        return null;
+    }
+
+    public static boolean exists(String hash) {
+        return find(hash) != null;
+    }
+
+    // Moves every flat object into the fan-out layout; returns how many moved
+    public static int migrate() throws IOException {
+        File[] items = objectsDir().listFiles();
+        int moved = 0;
+        if (items == null) {
+            return moved;
+        }
+        int i = 0;
+        while (i < items.length) {
+            File f = items[i];
+            String name = f.getName();
+            if (f.isFile() && isObjectName(name)) {
+                File target = fanout(name);
+                if (!target.getParentFile().exists()) {
+                    target.getParentFile().mkdirs();
+                }
+                if (target.exists()) {
+                    f.delete();
+                } else {
+                    Files.move(f.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                }
+                moved = moved + 1;
+            }
+            i = i + 1;
+        }
+        return moved;
+    }
+
+    // java ObjectPath migrate
+    public static void main(String[] args) {
+        if (args.length != 1 || !args[0].equals("migrate")) {
+            System.out.println("Usage: java ObjectPath migrate");
+            return;
+        }
+        try {
+            int moved = migrate();
+            System.out.println("Migrated " + moved + " objects to the fan-out layout");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static boolean isObjectName(String name) {
+        if (name == null || name.length() < 4) {
+            return false;
+        }
+        int i = 0;
+        while (i < name.length()) {
+            char c = name.charAt(i);
+            boolean hex = (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+            if (hex == false) {
+                return false;
+            }
+            i = i + 1;
+        }
+        return true;
+    }
+}
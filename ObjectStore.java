@@ -0,0 +1,55 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Where objects are kept. Tree, Blob, WorkingList and Index only talk to
+// the store returned by ObjectStores.get(), so the backend can be swapped
+// without touching them.
+public interface ObjectStore {
+
+    boolean exists(String id) throws IOException;
+
+    // Object contents, or null if the store does not have it
+    byte[] get(String id) throws IOException;
+
+    // Stream over the object contents, or null if the store does not have it
+    InputStream open(String id) throws IOException;
+
+    // Stores data under id; does nothing if the object is already there
+    void put(String id, byte[] data) throws IOException;
+
+    // For objects whose id is only known after all bytes have been written
+    ObjectWriter newWriter() throws IOException;
+
+    List<String> list() throws IOException;
+
+    // Object contents decoded as UTF-8, or null if the store does not have
+    // it. Caching stores keep the string along with the bytes.
+    default String getText(String id) throws IOException {
+        byte[] b = get(id);
+        if (b == null) {
+            return null;
+        }
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // The store that reads the backend itself, with no cache in front, for
+    // callers that must see what is really stored
+    default ObjectStore uncached() {
+        return this;
+    }
+
+    // Type in the object's stored header (see ObjectCodec), e.g. "manifest";
+    // null if it is stored as plain content or not at all
+    default String typeOf(String id) throws IOException {
+        return null;
+    }
+
+    // File holding the object's content byte for byte, for callers that copy
+    // it with FileChannel.transferTo; null if the store has no such file
+    default File rawFile(String id) throws IOException {
+        return null;
+    }
+}
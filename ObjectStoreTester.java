@@ -0,0 +1,194 @@
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+public class ObjectStoreTester {
+
+    public static void main(String[] args) {
+        try {
+            new Index().resetObjects();
+            check("Loose store", new LooseObjectStore());
+            check("Memory store", new MemoryObjectStore());
+            check("Cached store", new ObjectCache(new MemoryObjectStore()));
+
+            File dat = new File("git" + File.separator + "objects.dat");
+            dat.delete();
+            AppendObjectStore append = new AppendObjectStore(dat);
+            check("Append store", append);
+            append.close();
+            AppendObjectStore reopened = new AppendObjectStore(dat);
+            if (reopened.exists("aaaa1111") && "hello".equals(text(reopened.get("aaaa1111")))) {
+                System.out.println("Append store reopened: PASS");
+            } else {
+                System.out.println("Append store reopened: FAIL");
+            }
+            reopened.close();
+            dat.delete();
+
+            // Two stores on one file see each other's appends
+            AppendObjectStore first = new AppendObjectStore(dat);
+            AppendObjectStore second = new AppendObjectStore(dat);
+            first.put("cccc3333", "one".getBytes(StandardCharsets.UTF_8));
+            long length = dat.length();
+            second.put("cccc3333", "one".getBytes(StandardCharsets.UTF_8));
+            boolean shared = dat.length() == length && second.exists("cccc3333");
+            second.put("dddd3333", "two".getBytes(StandardCharsets.UTF_8));
+            first.close();
+            second.close();
+            reopened = new AppendObjectStore(dat);
+            if (shared == true && reopened.list().size() == 2 && "one".equals(text(reopened.get("cccc3333")))
+                    && "two".equals(text(reopened.get("dddd3333")))) {
+                System.out.println("Append stores share a file: PASS");
+            } else {
+                System.out.println("Append stores share a file: FAIL");
+            }
+            reopened.close();
+            dat.delete();
+
+            // Trees built against the memory store never touch git/objects
+            MemoryObjectStore memory = new MemoryObjectStore();
+            ObjectStores.use(memory);
+            writeFile("storeproj/a.txt", "a\n");
+            writeFile("storeproj/sub/b.txt", "b\n");
+            Tree t = new Tree();
+            String hash = t.createTree("storeproj");
+            ObjectStores.use(new ObjectCache(new LooseObjectStore()));
+            deleteRecursively(new File("storeproj"));
+            if (memory.exists(hash) && !ObjectPath.exists(hash)) {
+                System.out.println("Tree in memory store: PASS");
+            } else {
+                System.out.println("Tree in memory store: FAIL");
+            }
+
+            checkCache();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void checkCache() throws Exception {
+        MemoryObjectStore inner = new MemoryObjectStore();
+        ObjectCache cache = new ObjectCache(inner, 8 * 1024);
+        byte[] data = new byte[500];
+        inner.put("dddd0000", data);
+
+        cache.get("dddd0000");
+        cache.get("dddd0000");
+        cache.getText("dddd0000");
+        if (cache.getHits() == 2 && cache.getMisses() == 1) {
+            System.out.println("Cache hits and misses: PASS");
+        } else {
+            System.out.println("Cache hits and misses: FAIL " + cache);
+        }
+
+        // Missing ids are remembered until something stores them
+        cache.exists("eeee0000");
+        cache.exists("eeee0000");
+        boolean remembered = cache.getMissingHits() == 1;
+        cache.put("eeee0000", data);
+        if (remembered == true && cache.exists("eeee0000")) {
+            System.out.println("Cache negative lookups: PASS");
+        } else {
+            System.out.println("Cache negative lookups: FAIL " + cache);
+        }
+
+        // An object stored behind the cache (e.g. by another process)
+        // after a miss is still found by reads
+        cache.get("eeee1111");
+        inner.put("eeee1111", data);
+        if (cache.get("eeee1111") != null && cache.getText("eeee1111") != null) {
+            System.out.println("Cache rechecks missing objects on read: PASS");
+        } else {
+            System.out.println("Cache rechecks missing objects on read: FAIL " + cache);
+        }
+
+        int i = 0;
+        while (i < 40) {
+            String id = "ffff" + (1000 + i);
+            inner.put(id, data);
+            cache.get(id);
+            i = i + 1;
+        }
+        if (cache.getEvictions() > 0 && cache.getBytes() <= 8 * 1024) {
+            System.out.println("Cache evicts by size: PASS");
+        } else {
+            System.out.println("Cache evicts by size: FAIL " + cache);
+        }
+    }
+
+    private static void check(String name, ObjectStore store) throws Exception {
+        boolean ok = true;
+        if (store.exists("aaaa1111")) {
+            ok = false;
+        }
+        store.put("aaaa1111", "hello".getBytes(StandardCharsets.UTF_8));
+        store.put("aaaa1111", "ignored".getBytes(StandardCharsets.UTF_8));
+        if (!store.exists("aaaa1111") || !"hello".equals(text(store.get("aaaa1111")))) {
+            ok = false;
+        }
+
+        ObjectWriter w = store.newWriter();
+        w.write("streamed".getBytes(StandardCharsets.UTF_8));
+        w.close();
+        w.commit("bbbb2222");
+        w.abort();
+        InputStream in = store.open("bbbb2222");
+        if (in == null) {
+            ok = false;
+        } else {
+            byte[] b = in.readAllBytes();
+            in.close();
+            if (!"streamed".equals(text(b))) {
+                ok = false;
+            }
+        }
+
+        ObjectWriter dropped = store.newWriter();
+        dropped.write(1);
+        dropped.close();
+        dropped.abort();
+
+        List<String> ids = store.list();
+        if (ids.size() != 2 || !ids.contains("aaaa1111") || !ids.contains("bbbb2222")) {
+            ok = false;
+        }
+        if (store.get("cccc3333") != null || store.open("cccc3333") != null) {
+            ok = false;
+        }
+
+        if (ok == true) {
+            System.out.println(name + ": PASS");
+        } else {
+            System.out.println(name + ": FAIL");
+        }
+    }
+
+    private static String text(byte[] b) {
+        if (b == null) {
+            return null;
+        }
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFile(String name, String content) throws Exception {
+        File f = new File(name);
+        f.getParentFile().mkdirs();
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            File[] kids = f.listFiles();
+            if (kids != null) {
+                int i = 0;
+                while (i < kids.length) {
+                    deleteRecursively(kids[i]);
+                    i = i + 1;
+                }
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,26 @@
+// Holds the store used by the rest of the code. Defaults to loose files
+// under git/objects behind an ObjectCache.
+public class ObjectStores {
+
+    private static ObjectStore current = new ObjectCache(new LooseObjectStore());
+
+    public static synchronized ObjectStore get() {
+        return current;
+    }
+
+    public static synchronized void use(ObjectStore store) {
+        if (store == null) {
+            throw new IllegalArgumentException("Store is null");
+        }
+        current = store;
+    }
+
+    // Forgets cached objects and loaded pack indexes after they were
+    // removed from disk directly
+    public static synchronized void clearCache() {
+        if (current instanceof ObjectCache) {
+            ((ObjectCache) current).clear();
+        }
+        Pack.forget();
+    }
+}
@@ -0,0 +1,34 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Streams a new object into a store. After close(), commit(id) stores the
+// bytes under id (or drops them if the object already exists), and abort()
+// discards them. Calling abort() after commit() does nothing.
+public abstract class ObjectWriter extends OutputStream {
+
+    public abstract void commit(String id) throws IOException;
+
+    public abstract void abort();
+
+    // Writes count bytes of src, starting at position, into the object.
+    // Stores backed by files override this so the OS copies the bytes
+    // without bringing them onto the heap.
+    public void transferFrom(FileChannel src, long position, long count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long end = position + count;
+        while (position < end) {
+            buffer.clear();
+            if (end - position < buffer.capacity()) {
+                buffer.limit((int) (end - position));
+            }
+            int read = src.read(buffer, position);
+            if (read == -1) {
+                throw new IOException("File ended early at " + position + " of " + end);
+            }
+            write(buffer.array(), 0, read);
+            position = position + read;
+        }
+    }
+}
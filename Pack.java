@@ -0,0 +1,790 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Bundles loose objects into git/objects/pack/pack-<sha1>.pack with a
+// matching .idx, optionally storing objects as deltas against similar ones.
+//
+// .pack: "PACK" | version (int) | count (int) | entries | SHA-1 of the above
+//   entry: kind (byte, 1 = whole, 2 = delta) | [base offset (long), delta only]
+//          | inflated length (int) | stored length (int) | deflated payload
+// .idx:  "PIDX" | version (int) | count (int) | id length (byte)
+//        | entries sorted by id: raw id | pack offset (long) | pack checksum
+//        | SHA-1 of the above (version 2 on; version 1 indexes have none)
+//
+// Opening an index checks its own checksum and that the pack checksum it
+// names is the one at the end of the pack. Each pack keeps one FileChannel
+// open for reads, which are positional and so safe from any thread.
+//
+// A delta payload is: base size (varint) | result size (varint) | ops, where
+// op 0 = insert (length varint, bytes) and op 1 = copy (offset varint, length varint).
+public class Pack {
+
+    private static final int VERSION = 1;
+    private static final int IDX_VERSION = 2;
+    private static final int WHOLE = 1;
+    private static final int DELTA = 2;
+    // How many similar-sized objects are tried as delta bases, and how many
+    // bytes of them are kept in memory at most
+    private static final int WINDOW = 10;
+    private static final long WINDOW_BYTES = 64L * 1024 * 1024;
+    // Bigger objects are stored whole: the delta search is quadratic-ish
+    // in memory and time, and such objects rarely have close neighbours
+    private static final long MAX_DELTA_OBJECT = 16L * 1024 * 1024;
+    private static final int MAX_DEPTH = 10;
+    private static final int BLOCK = 16;
+
+    // Objects bigger than this stay loose, like git's core.bigFileThreshold.
+    // Packing reads whole objects into memory and entries record lengths as
+    // ints, so a multi-GB object could not be packed anyway.
+    public static long BIG_OBJECT = 512L * 1024 * 1024;
+
+    private final File packFile;
+    private final FileChannel channel;
+    private final byte[] ids;
+    private final long[] offsets;
+    private final int idLen;
+
+    private Pack(File packFile, FileChannel channel, byte[] ids, long[] offsets, int idLen) {
+        this.packFile = packFile;
+        this.channel = channel;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.idLen = idLen;
+    }
+
+    // Loaded indexes, the names they were read from, and the pack
+    // directory's mtime when it was listed. Lookups read the list without a
+    // lock or a directory listing; it is only reread when the directory
+    // changed, which a miss checks with one stat.
+    private static volatile ArrayList<Pack> loaded = null;
+    private static volatile long loadedMtime = -1;
+    private static String loadedNames = "";
+
+    // Drops the loaded indexes, for when packs were removed behind our back.
+    // A read racing with this may fail on the closed channel.
+    public static synchronized void forget() {
+        if (loaded != null) {
+            closeAll(loaded, new ArrayList<Pack>());
+        }
+        loaded = null;
+        loadedNames = "";
+        loadedMtime = -1;
+    }
+
+    // Closes the channels of the packs in old that are not in kept
+    private static void closeAll(ArrayList<Pack> old, ArrayList<Pack> kept) {
+        int i = 0;
+        while (i < old.size()) {
+            if (!kept.contains(old.get(i))) {
+                try {
+                    old.get(i).channel.close();
+                } catch (IOException e) {
+                    // Only read from, so nothing is lost
+                }
+            }
+            i = i + 1;
+        }
+    }
+
+    public static File packDir() {
+        return new File(ObjectPath.objectsDir(), "pack");
+    }
+
+    public static boolean contains(String hash) {
+        try {
+            return find(hash) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Contents of a packed object, or null if no pack has it
+    public static byte[] read(String hash) throws IOException {
+        Pack p = find(hash);
+        if (p == null && ObjectPath.isObjectName(hash)) {
+            // A pack written within the same mtime tick as the last listing
+            // would not show up otherwise
+            p = search(reload(true), hash);
+        }
+        if (p == null) {
+            return null;
+        }
+        return p.readAt(p.offsets[p.indexOf(hash)], 0);
+    }
+
+    // Ids of every packed object
+    public static ArrayList<String> listIds() throws IOException {
+        ArrayList<String> out = new ArrayList<String>();
+        ArrayList<Pack> packs = reload(false);
+        int i = 0;
+        while (i < packs.size()) {
+            Pack p = packs.get(i);
+            int j = 0;
+            while (j < p.offsets.length) {
+                out.add(Hex.encode(p.ids, j * p.idLen, p.idLen));
+                j = j + 1;
+            }
+            i = i + 1;
+        }
+        return out;
+    }
+
+    private static Pack find(String hash) throws IOException {
+        if (!ObjectPath.isObjectName(hash)) {
+            return null;
+        }
+        ArrayList<Pack> packs = packs();
+        Pack p = search(packs, hash);
+        if (p == null) {
+            ArrayList<Pack> now = reload(false);
+            if (now != packs) {
+                p = search(now, hash);
+            }
+        }
+        return p;
+    }
+
+    private static Pack search(ArrayList<Pack> packs, String hash) {
+        int i = 0;
+        while (i < packs.size()) {
+            Pack p = packs.get(i);
+            if (p.indexOf(hash) >= 0) {
+                return p;
+            }
+            i = i + 1;
+        }
+        return null;
+    }
+
+    private static ArrayList<Pack> packs() throws IOException {
+        ArrayList<Pack> packs = loaded;
+        if (packs != null) {
+            return packs;
+        }
+        return reload(false);
+    }
+
+    // Rereads the set of .idx files if the pack directory changed since it
+    // was last listed, or always with force. Indexes whose files are still
+    // there are kept rather than read again.
+    private static synchronized ArrayList<Pack> reload(boolean force) throws IOException {
+        File dir = packDir();
+        long mtime = dir.lastModified();
+        if (force == false && loaded != null && mtime == loadedMtime) {
+            return loaded;
+        }
+        String[] names = dir.list();
+        if (names == null) {
+            names = new String[0];
+        }
+        ArrayList<String> idxNames = new ArrayList<String>();
+        int i = 0;
+        while (i < names.length) {
+            if (names[i].endsWith(".idx")) {
+                idxNames.add(names[i]);
+            }
+            i = i + 1;
+        }
+        Collections.sort(idxNames);
+        String key = idxNames.toString();
+        if (loaded != null && key.equals(loadedNames)) {
+            loadedMtime = mtime;
+            return loaded;
+        }
+
+        HashMap<String, Pack> open = new HashMap<String, Pack>();
+        if (loaded != null) {
+            i = 0;
+            while (i < loaded.size()) {
+                open.put(loaded.get(i).packFile.getName(), loaded.get(i));
+                i = i + 1;
+            }
+        }
+        ArrayList<Pack> packs = new ArrayList<Pack>();
+        i = 0;
+        while (i < idxNames.size()) {
+            String idx = idxNames.get(i);
+            File pack = new File(dir, idx.substring(0, idx.length() - 4) + ".pack");
+            Pack p = open.get(pack.getName());
+            if (p != null && pack.isFile()) {
+                packs.add(p);
+            } else if (pack.isFile()) {
+                packs.add(openIndex(new File(dir, idx), pack));
+            }
+            i = i + 1;
+        }
+        if (loaded != null) {
+            closeAll(loaded, packs);
+        }
+        loadedNames = key;
+        loadedMtime = mtime;
+        loaded = packs;
+        return packs;
+    }
+
+    private static Pack openIndex(File idx, File pack) throws IOException {
+        byte[] data = Files.readAllBytes(idx.toPath());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte[] magic = new byte[4];
+        in.readFully(magic);
+        if (!new String(magic, "US-ASCII").equals("PIDX")) {
+            throw new IOException("Not a pack index: " + idx.getPath());
+        }
+        int version = in.readInt();
+        if (version != 1 && version != IDX_VERSION) {
+            throw new IOException("Unsupported pack index version: " + version);
+        }
+        int count = in.readInt();
+        int idLen = in.readUnsignedByte();
+        long expected = 13L + (long) count * (idLen + 8) + 20;
+        if (version >= 2) {
+            expected = expected + 20;
+        }
+        if (count < 0 || idLen == 0 || data.length != expected) {
+            throw new IOException("Truncated or damaged pack index: " + idx.getPath());
+        }
+        if (version >= 2) {
+            MessageDigest md = Hashing.newSha1();
+            md.update(data, 0, data.length - 20);
+            if (!Arrays.equals(md.digest(), Arrays.copyOfRange(data, data.length - 20, data.length))) {
+                throw new IOException("Pack index checksum mismatch: " + idx.getPath());
+            }
+        }
+        byte[] ids = new byte[count * idLen];
+        long[] offsets = new long[count];
+        int i = 0;
+        while (i < count) {
+            in.readFully(ids, i * idLen, idLen);
+            offsets[i] = in.readLong();
+            i = i + 1;
+        }
+        byte[] packSum = new byte[20];
+        in.readFully(packSum);
+
+        FileChannel channel = FileChannel.open(pack.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer tail = ByteBuffer.allocate(20);
+            readFully(channel, tail, channel.size() - 20, pack);
+            if (!Arrays.equals(tail.array(), packSum)) {
+                throw new IOException("Pack index does not match its pack: " + idx.getPath());
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new Pack(pack, channel, ids, offsets, idLen);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position, File file) throws IOException {
+        if (position < 0) {
+            throw new IOException("Truncated pack: " + file.getPath());
+        }
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) {
+                throw new IOException("Truncated pack: " + file.getPath());
+            }
+        }
+    }
+
+    private int indexOf(String hash) {
+        if (hash.length() != idLen * 2) {
+            return -1;
+        }
+        if (!Hex.isHex(hash)) {
+            return -1;
+        }
+        byte[] key = Hex.decode(hash);
+        int lo = 0;
+        int hi = offsets.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = -Hex.compare(key, ids, mid * idLen);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+
+    private byte[] readAt(long offset, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Delta chain too deep in " + packFile.getPath());
+        }
+        // kind, then a base offset for deltas, then the two lengths; the
+        // pack checksum after the last entry keeps this inside the file
+        ByteBuffer head = ByteBuffer.allocate(1 + 8 + 4 + 4);
+        readFully(channel, head, offset, packFile);
+        int kind = head.get(0) & 0xff;
+        long base = -1;
+        int at = 1;
+        if (kind == DELTA) {
+            base = head.getLong(1);
+            at = 9;
+        } else if (kind != WHOLE) {
+            throw new IOException("Bad pack entry at " + offset + " in " + packFile.getPath());
+        }
+        int inflated = head.getInt(at);
+        int storedLength = head.getInt(at + 4);
+        if (inflated < 0 || storedLength < 0) {
+            throw new IOException("Bad pack entry at " + offset + " in " + packFile.getPath());
+        }
+        ByteBuffer body = ByteBuffer.allocate(storedLength);
+        readFully(channel, body, offset + at + 8, packFile);
+        byte[] stored = body.array();
+
+        byte[] payload = inflate(stored, inflated);
+        if (kind == WHOLE) {
+            return payload;
+        }
+        return applyDelta(readAt(base, depth + 1), payload);
+    }
+
+    // Packs every loose object of up to BIG_OBJECT bytes of content and
+    // removes the loose copies. Packs hold content only, so objects stored
+    // with a type other than blob (manifests) stay loose. Returns the
+    // pack file, or null if there was nothing to pack. Only one packer runs
+    // at a time, so two never pack (and delete) the same loose objects.
+    public static File packObjects(boolean deltas) throws IOException {
+        RepoLock lock = RepoLock.lock(new File(packDir(), "pack"));
+        try {
+            return packLocked(deltas);
+        } finally {
+            lock.release();
+        }
+    }
+
+    private static File packLocked(boolean deltas) throws IOException {
+        ArrayList<File> loose = new ArrayList<File>();
+        ArrayList<File> all = listLoose();
+        int k = 0;
+        while (k < all.size()) {
+            String type = ObjectCodec.typeOf(all.get(k));
+            if ((type == null || type.equals("blob")) && ObjectCodec.contentSize(all.get(k)) <= BIG_OBJECT) {
+                loose.add(all.get(k));
+            }
+            k = k + 1;
+        }
+        if (loose.size() == 0) {
+            return null;
+        }
+        // Similar objects tend to have similar sizes, so neighbours in size
+        // order are the delta candidates
+        Collections.sort(loose, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(a.length(), b.length());
+            }
+        });
+
+        File dir = packDir();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File tempPack = File.createTempFile("tmp_pack_", null, dir);
+        MessageDigest md = Hashing.newSha1();
+        ArrayList<String> hashes = new ArrayList<String>();
+        HashMap<String, Long> offsetOf = new HashMap<String, Long>();
+        try {
+            CountingOutputStream counter = new CountingOutputStream(new FileOutputStream(tempPack));
+            DataOutputStream out = new DataOutputStream(new DigestOutputStream(counter, md));
+            out.writeBytes("PACK");
+            out.writeInt(VERSION);
+            out.writeInt(loose.size());
+
+            ArrayList<byte[]> window = new ArrayList<byte[]>();
+            long windowBytes = 0;
+            ArrayList<Long> windowOffsets = new ArrayList<Long>();
+            ArrayList<Integer> windowDepths = new ArrayList<Integer>();
+            int i = 0;
+            while (i < loose.size()) {
+                File f = loose.get(i);
+                String hash = objectName(f);
+                // Packs hold content; deflating a compressed object again
+                // would only waste time and hide it from delta search
+                byte[] data = ObjectCodec.decode(Files.readAllBytes(f.toPath()));
+                out.flush();
+                long offset = counter.count;
+
+                byte[] best = null;
+                int bestBase = -1;
+                if (deltas == true && data.length >= 64 && data.length <= MAX_DELTA_OBJECT) {
+                    int w = 0;
+                    while (w < window.size()) {
+                        if (windowDepths.get(w) < MAX_DEPTH) {
+                            byte[] d = makeDelta(window.get(w), data);
+                            if (d.length < data.length / 2 && (best == null || d.length < best.length)) {
+                                best = d;
+                                bestBase = w;
+                            }
+                        }
+                        w = w + 1;
+                    }
+                }
+
+                int depth = 0;
+                if (best != null) {
+                    out.writeByte(DELTA);
+                    out.writeLong(windowOffsets.get(bestBase));
+                    writePayload(out, best);
+                    depth = windowDepths.get(bestBase) + 1;
+                } else {
+                    out.writeByte(WHOLE);
+                    writePayload(out, data);
+                }
+
+                hashes.add(hash);
+                offsetOf.put(hash, offset);
+                if (data.length <= MAX_DELTA_OBJECT) {
+                    window.add(data);
+                    windowOffsets.add(offset);
+                    windowDepths.add(depth);
+                    windowBytes = windowBytes + data.length;
+                }
+                while (window.size() > WINDOW || windowBytes > WINDOW_BYTES) {
+                    windowBytes = windowBytes - window.get(0).length;
+                    window.remove(0);
+                    windowOffsets.remove(0);
+                    windowDepths.remove(0);
+                }
+                i = i + 1;
+            }
+            out.flush();
+            byte[] checksum = md.digest();
+            counter.write(checksum);
+            counter.close();
+
+            String name = "pack-" + Hex.encode(checksum);
+            File pack = new File(dir, name + ".pack");
+            File idx = new File(dir, name + ".idx");
+            writeIndex(idx, hashes, offsetOf, checksum);
+            AtomicFile.force(tempPack);
+            Files.move(tempPack.toPath(), pack.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            AtomicFile.forceDir(dir);
+
+            // Only drop loose copies once the pack and index are in place
+            // (and synced)
+            i = 0;
+            while (i < loose.size()) {
+                loose.get(i).delete();
+                i = i + 1;
+            }
+            return pack;
+        } finally {
+            if (tempPack.exists()) {
+                tempPack.delete();
+            }
+        }
+    }
+
+    // java Pack [--no-delta]
+    public static void main(String[] args) {
+        boolean deltas = !(args.length == 1 && args[0].equals("--no-delta"));
+        try {
+            File pack = packObjects(deltas);
+            if (pack == null) {
+                System.out.println("Nothing to pack");
+            } else {
+                System.out.println("Wrote " + pack.getPath());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writePayload(DataOutputStream out, byte[] payload) throws IOException {
+        byte[] stored = deflate(payload);
+        out.writeInt(payload.length);
+        out.writeInt(stored.length);
+        out.write(stored);
+    }
+
+    private static void writeIndex(File idx, ArrayList<String> hashes, HashMap<String, Long> offsetOf, byte[] checksum) throws IOException {
+        ArrayList<String> sorted = new ArrayList<String>(hashes);
+        Collections.sort(sorted);
+        int idLen = sorted.get(0).length() / 2;
+
+        File temp = File.createTempFile("tmp_idx_", null, idx.getParentFile());
+        MessageDigest md = Hashing.newSha1();
+        DigestOutputStream digest = new DigestOutputStream(new FileOutputStream(temp), md);
+        DataOutputStream out = new DataOutputStream(digest);
+        try {
+            out.writeBytes("PIDX");
+            out.writeInt(IDX_VERSION);
+            out.writeInt(sorted.size());
+            out.writeByte(idLen);
+            int i = 0;
+            while (i < sorted.size()) {
+                String hash = sorted.get(i);
+                if (hash.length() != idLen * 2) {
+                    throw new IOException("Mixed object id lengths: " + hash);
+                }
+                out.write(Hex.decode(hash));
+                out.writeLong(offsetOf.get(hash));
+                i = i + 1;
+            }
+            out.write(checksum);
+            out.flush();
+            digest.on(false);
+            out.write(md.digest());
+        } finally {
+            out.close();
+        }
+        AtomicFile.force(temp);
+        Files.move(temp.toPath(), idx.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ArrayList<File> listLoose() {
+        ArrayList<File> out = new ArrayList<File>();
+        File[] items = ObjectPath.objectsDir().listFiles();
+        if (items == null) {
+            return out;
+        }
+        int i = 0;
+        while (i < items.length) {
+            File f = items[i];
+            String name = f.getName();
+            if (f.isFile() && ObjectPath.isObjectName(name)) {
+                out.add(f);
+            } else if (f.isDirectory() && name.length() == 2) {
+                File[] kids = f.listFiles();
+                if (kids != null) {
+                    int j = 0;
+                    while (j < kids.length) {
+                        if (kids[j].isFile() && ObjectPath.isObjectName(name + kids[j].getName())) {
+                            out.add(kids[j]);
+                        }
+                        j = j + 1;
+                    }
+                }
+            }
+            i = i + 1;
+        }
+        return out;
+    }
+
+    private static String objectName(File f) {
+        File parent = f.getParentFile();
+        if (parent.getName().length() == 2 && !parent.equals(ObjectPath.objectsDir())) {
+            return parent.getName() + f.getName();
+        }
+        return f.getName();
+    }
+
+    // Copy/insert delta of target against base, matching BLOCK-sized runs
+    public static byte[] makeDelta(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<Integer, Integer>();
+        int b = 0;
+        while (b + BLOCK <= base.length) {
+            int h = blockHash(base, b);
+            if (!blocks.containsKey(h)) {
+                blocks.put(h, b);
+            }
+            b = b + BLOCK;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        ByteArrayOutputStream insert = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < target.length) {
+            int matchAt = -1;
+            int matchLen = 0;
+            if (i + BLOCK <= target.length) {
+                Integer at = blocks.get(blockHash(target, i));
+                if (at != null) {
+                    int len = 0;
+                    while (at + len < base.length && i + len < target.length && base[at + len] == target[i + len]) {
+                        len = len + 1;
+                    }
+                    if (len >= BLOCK) {
+                        matchAt = at;
+                        matchLen = len;
+                    }
+                }
+            }
+            if (matchAt == -1) {
+                insert.write(target[i]);
+                i = i + 1;
+            } else {
+                flushInsert(out, insert);
+                out.write(1);
+                writeVarint(out, matchAt);
+                writeVarint(out, matchLen);
+                i = i + matchLen;
+            }
+        }
+        flushInsert(out, insert);
+        return out.toByteArray();
+    }
+
+    public static byte[] applyDelta(byte[] base, byte[] delta) throws IOException {
+        int[] pos = new int[] { 0 };
+        int baseLen = readVarint(delta, pos);
+        int resultLen = readVarint(delta, pos);
+        if (baseLen != base.length) {
+            throw new IOException("Delta base size mismatch");
+        }
+        byte[] out = new byte[resultLen];
+        int o = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] = pos[0] + 1;
+            if (op == 0) {
+                int len = readVarint(delta, pos);
+                if (pos[0] + len > delta.length || o + len > resultLen) {
+                    throw new IOException("Delta insert out of range");
+                }
+                System.arraycopy(delta, pos[0], out, o, len);
+                pos[0] = pos[0] + len;
+                o = o + len;
+            } else if (op == 1) {
+                int from = readVarint(delta, pos);
+                int len = readVarint(delta, pos);
+                if (from + len > base.length || o + len > resultLen) {
+                    throw new IOException("Delta copy out of range");
+                }
+                System.arraycopy(base, from, out, o, len);
+                o = o + len;
+            } else {
+                throw new IOException("Bad delta op: " + op);
+            }
+        }
+        if (o != resultLen) {
+            throw new IOException("Delta result size mismatch");
+        }
+        return out;
+    }
+
+    private static void flushInsert(ByteArrayOutputStream out, ByteArrayOutputStream insert) {
+        if (insert.size() == 0) {
+            return;
+        }
+        out.write(0);
+        writeVarint(out, insert.size());
+        byte[] b = insert.toByteArray();
+        out.write(b, 0, b.length);
+        insert.reset();
+    }
+
+    private static int blockHash(byte[] data, int start) {
+        int h = 1;
+        int i = 0;
+        while (i < BLOCK) {
+            h = 31 * h + data[start + i];
+            i = i + 1;
+        }
+        return h;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v = v >>> 7;
+        }
+        out.write(v);
+    }
+
+    private static int readVarint(byte[] data, int[] pos) throws IOException {
+        int v = 0;
+        int shift = 0;
+        while (true) {
+            if (pos[0] >= data.length || shift > 28) {
+                throw new IOException("Bad varint in delta");
+            }
+            int b = data[pos[0]] & 0xff;
+            pos[0] = pos[0] + 1;
+            v = v | ((b & 0x7f) << shift);
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+            shift = shift + 7;
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = ObjectCodec.deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            ObjectCodec.release(deflater);
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int length) throws IOException {
+        Inflater inflater = ObjectCodec.inflater();
+        inflater.setInput(data);
+        byte[] out = new byte[length];
+        try {
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int count = inflater.inflate(out, n, length - n);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n = n + count;
+            }
+            if (n != length) {
+                throw new IOException("Truncated pack entry");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt pack entry", e);
+        } finally {
+            ObjectCodec.release(inflater);
+        }
+        return out;
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            count = count + 1;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count = count + len;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+public class PackTester {
+
+    public static void main(String[] args) {
+        try {
+            Index idx = new Index();
+            idx.resetObjects();
+
+            // Several near-identical versions of one large file
+            StringBuilder sb = new StringBuilder();
+            int i = 0;
+            while (i < 2000) {
+                sb.append("line ").append(i).append(" of the packed sample file\n");
+                i = i + 1;
+            }
+            String base = sb.toString();
+            ArrayList<String> hashes = new ArrayList<String>();
+            ArrayList<String> contents = new ArrayList<String>();
+            long looseBytes = 0;
+            int v = 0;
+            while (v < 5) {
+                String content = base.replace("line " + (v * 300) + " ", "edited line " + v + " ");
+                makeFile("pack_sample.txt", content);
+                String hash = Blob.createBlobFromPath("pack_sample.txt");
+                hashes.add(hash);
+                contents.add(content);
+                looseBytes = looseBytes + ObjectPath.find(hash).length();
+                v = v + 1;
+            }
+            new File("packproj/sub").mkdirs();
+            makeFile("packproj/a.txt", "a\n");
+            makeFile("packproj/sub/b.txt", "b\n");
+            Tree t = new Tree();
+            String treeHash = t.createTree("packproj");
+            String treeContent = t.readObject(treeHash);
+
+            File pack = Pack.packObjects(true);
+            if (pack != null && pack.isFile()) {
+                System.out.println("Pack written: PASS");
+            } else {
+                System.out.println("Pack written: FAIL");
+                return;
+            }
+
+            boolean looseGone = true;
+            i = 0;
+            while (i < hashes.size()) {
+                if (ObjectPath.exists(hashes.get(i))) {
+                    looseGone = false;
+                }
+                i = i + 1;
+            }
+            if (looseGone == true && !ObjectPath.exists(treeHash)) {
+                System.out.println("Loose objects pruned: PASS");
+            } else {
+                System.out.println("Loose objects pruned: FAIL");
+            }
+
+            boolean readable = true;
+            i = 0;
+            while (i < hashes.size()) {
+                String got = t.readObject(hashes.get(i));
+                if (got == null || !got.equals(contents.get(i)) || !t.objectExists(hashes.get(i))) {
+                    readable = false;
+                }
+                i = i + 1;
+            }
+            if (!treeContent.equals(t.readObject(treeHash))) {
+                readable = false;
+            }
+            if (readable == true) {
+                System.out.println("Objects read from pack: PASS");
+            } else {
+                System.out.println("Objects read from pack: FAIL");
+            }
+
+            if (pack.length() < looseBytes / 2) {
+                System.out.println("Deltas shrink the store: PASS");
+            } else {
+                System.out.println("Deltas shrink the store: FAIL");
+            }
+
+            if (t.objectExists("0000000000000000000000000000000000000000") == false) {
+                System.out.println("Missing object not found: PASS");
+            } else {
+                System.out.println("Missing object not found: FAIL");
+            }
+
+            // Objects over the size limit, compressed or not, stay loose
+            Pack.BIG_OBJECT = 10000;
+            makeFile("pack_sample.txt", base);
+            String bigRaw = Blob.createBlobFromPath("pack_sample.txt");
+            Blob.COMPRESS = true;
+            makeFile("pack_sample.txt", base + "compressed\n");
+            String bigZip = Blob.createBlobFromPath("pack_sample.txt");
+            Blob.COMPRESS = false;
+            makeFile("pack_sample.txt", "small\n");
+            String small = Blob.createBlobFromPath("pack_sample.txt");
+            Pack.packObjects(true);
+            Pack.BIG_OBJECT = 512L * 1024 * 1024;
+            if (ObjectPath.exists(bigRaw) && ObjectPath.exists(bigZip) && !ObjectPath.exists(small)
+                    && base.equals(t.readObject(bigRaw)) && (base + "compressed\n").equals(t.readObject(bigZip))
+                    && "small\n".equals(t.readObject(small))) {
+                System.out.println("Big objects left loose: PASS");
+            } else {
+                System.out.println("Big objects left loose: FAIL");
+            }
+
+            // A damaged index is refused instead of pointing reads anywhere
+            File idxFile = new File(pack.getPath().replace(".pack", ".idx"));
+            byte[] good = Files.readAllBytes(idxFile.toPath());
+            byte[] bad = good.clone();
+            bad[20] = (byte) (bad[20] ^ 1);
+            Files.write(idxFile.toPath(), bad);
+            Pack.forget();
+            boolean refused = false;
+            try {
+                Pack.read(hashes.get(0));
+            } catch (IOException e) {
+                refused = true;
+            }
+            Files.write(idxFile.toPath(), good);
+            Pack.forget();
+            if (refused == true && contents.get(0).equals(t.readObject(hashes.get(0)))) {
+                System.out.println("Damaged pack index refused: PASS");
+            } else {
+                System.out.println("Damaged pack index refused: FAIL");
+            }
+
+            new File("pack_sample.txt").delete();
+            deleteRecursively(new File("packproj"));
+            idx.resetObjects();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void makeFile(String name, String content) throws Exception {
+        FileWriter w = new FileWriter(new File(name), false);
+        w.write(content);
+        w.flush();
+        w.close();
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            File[] kids = f.listFiles();
+            if (kids != null) {
+                int i = 0;
+                while (i < kids.length) {
+                    deleteRecursively(kids[i]);
+                    i = i + 1;
+                }
+            }
+        }
+        f.delete();
+    }
+}
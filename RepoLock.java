@@ -0,0 +1,94 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Exclusive lock on a repository file, held through "<file>.lock" next to
+// it (git/index.lock for the index). Works across processes with
+// FileChannel.lock and across threads of this JVM with a ReentrantLock,
+// since the OS lock belongs to the whole process. The same thread may lock
+// again while it holds the lock. Use it as:
+//   RepoLock lock = RepoLock.lock(file);
+//   try { ... read, change and replace the file ... } finally { lock.release(); }
+// The .lock file is left in place: deleting it would let a waiter and a
+// newcomer lock two different files.
+public class RepoLock {
+
+    private static final HashMap<String, RepoLock> locks = new HashMap<String, RepoLock>();
+
+    private final File lockFile;
+    private final ReentrantLock threads = new ReentrantLock();
+    private RandomAccessFile raf;
+    private FileLock fileLock;
+
+    private RepoLock(File lockFile) {
+        this.lockFile = lockFile;
+    }
+
+    public static RepoLock lock(File target) throws IOException {
+        File lockFile = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".lock");
+        String key = lockFile.getCanonicalPath();
+        RepoLock lock;
+        synchronized (locks) {
+            lock = locks.get(key);
+            if (lock == null) {
+                lock = new RepoLock(lockFile);
+                locks.put(key, lock);
+            }
+        }
+        lock.acquire();
+        return lock;
+    }
+
+    private void acquire() throws IOException {
+        threads.lock();
+        if (threads.getHoldCount() > 1) {
+            return;
+        }
+        try {
+            File dir = lockFile.getParentFile();
+            if (dir != null && !dir.exists()) {
+                dir.mkdirs();
+            }
+            raf = new RandomAccessFile(lockFile, "rw");
+            FileChannel channel = raf.getChannel();
+            fileLock = channel.lock();
+        } catch (IOException e) {
+            closeFile();
+            threads.unlock();
+            throw e;
+        }
+    }
+
+    public void release() {
+        if (!threads.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("Lock not held: " + lockFile.getPath());
+        }
+        if (threads.getHoldCount() == 1) {
+            closeFile();
+        }
+        threads.unlock();
+    }
+
+    private void closeFile() {
+        try {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+        } catch (IOException e) {
+            // Closing the file below drops the lock anyway
+        }
+        fileLock = null;
+        try {
+            if (raf != null) {
+                raf.close();
+            }
+        } catch (IOException e) {
+            // Nothing left to clean up
+        }
+        raf = null;
+    }
+}
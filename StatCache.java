@@ -0,0 +1,175 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+public class StatCache {
+
+    private static final long SMUDGED = -1;
+
+    private static class Entry {
+        String sha;
+        long size;
+        long mtime;
+        String key;
+
+        Entry(String sha, long size, long mtime, String key) {
+            this.sha = sha;
+            this.size = size;
+            this.mtime = mtime;
+            this.key = key;
+        }
+    }
+
+    private final File file;
+    private final HashMap<String, Entry> entries;
+    // Last modified time of the stat file when it was loaded or saved
+    private long savedAt;
+    private boolean dirty;
+
+    public StatCache(File file) {
+        this.file = file;
+        this.entries = new HashMap<String, Entry>();
+        this.savedAt = 0;
+        this.dirty = false;
+    }
+
+    // Stat data for git/index lives next to it in git/index.stat, one line per path:
+    // <size> <mtime> <fileKey> <sha1> <path>
+    public static StatCache load() throws IOException {
+        StatCache cache = new StatCache(new File("git" + File.separator + "index.stat"));
+        cache.read();
+        return cache;
+    }
+
+    private void read() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        savedAt = file.lastModified();
+        BufferedReader br = new BufferedReader(new FileReader(file));
+        try {
+            String line = br.readLine();
+            while (line != null) {
+                String[] parts = line.split(" ", 5);
+                if (parts.length == 5) {
+                    try {
+                        long size = Long.parseLong(parts[0]);
+                        long mtime = Long.parseLong(parts[1]);
+                        entries.put(parts[4], new Entry(parts[3], size, mtime, parts[2]));
+                    } catch (NumberFormatException e) {
+                        // Skip a damaged line; the file just gets rehashed
+                    }
+                }
+                line = br.readLine();
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    public String lookup(String path, BasicFileAttributes attrs) {
+        Entry e = entries.get(path);
+        if (e == null) {
+            return null;
+        }
+        if (e.size != attrs.size()) {
+            return null;
+        }
+        long mtime = attrs.lastModifiedTime().toMillis();
+        if (e.mtime != mtime) {
+            return null;
+        }
+        if (!e.key.equals(keyOf(attrs))) {
+            return null;
+        }
+        // Racy timestamp: the file may have changed again within the same
+        // clock tick it was hashed in, so only trust entries older than the cache
+        if (mtime >= savedAt) {
+            return null;
+        }
+        return e.sha;
+    }
+
+    public void record(String path, String sha, BasicFileAttributes attrs) {
+        Entry e = new Entry(sha, attrs.size(), attrs.lastModifiedTime().toMillis(), keyOf(attrs));
+        entries.put(path, e);
+        dirty = true;
+    }
+
+    // Takes other's entry for path, e.g. stat data recorded before a lock
+    // was taken and this cache was loaded
+    public void copyFrom(StatCache other, String path) {
+        Entry e = other.entries.get(path);
+        if (e == null) {
+            return;
+        }
+        Entry mine = entries.get(path);
+        if (mine != null && mine.sha.equals(e.sha) && mine.size == e.size && mine.mtime == e.mtime && mine.key.equals(e.key)) {
+            return;
+        }
+        entries.put(path, e);
+        dirty = true;
+    }
+
+    public void save() throws IOException {
+        if (dirty == false) {
+            return;
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        ArrayList<String> paths = new ArrayList<String>(entries.keySet());
+        Collections.sort(paths);
+
+        // Like git: an entry as new as the file it is saved in is racy, and
+        // would be trusted once a later save moves the file time past it.
+        // Smudge those so they are always rehashed, then write again; the
+        // second write is not older than the first, so one pass is enough.
+        write(paths);
+        savedAt = file.lastModified();
+        if (smudgeRacy() == true) {
+            write(paths);
+            savedAt = file.lastModified();
+        }
+        dirty = false;
+    }
+
+    private void write(ArrayList<String> paths) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < paths.size()) {
+            String path = paths.get(i);
+            Entry e = entries.get(path);
+            sb.append(e.size + " " + e.mtime + " " + e.key + " " + e.sha + " " + path + "\n");
+            i = i + 1;
+        }
+        AtomicFile.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // A size of -1 never matches a file, so lookup misses on smudged entries
+    private boolean smudgeRacy() {
+        boolean any = false;
+        for (Entry e : entries.values()) {
+            if (e.size != SMUDGED && e.mtime >= savedAt) {
+                e.size = SMUDGED;
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    private static String keyOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        if (key == null) {
+            return "-";
+        }
+        return key.toString().replace(' ', '_');
+    }
+}
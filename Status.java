@@ -0,0 +1,282 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// What changed between the working directory and git/index, and between
+// git/index and a stored tree:
+//   java Status [dir]
+// Changes are reported to a Listener as they are found instead of being
+// collected, as 'A' (added), 'M' (modified) or 'D' (deleted) and a path.
+public class Status {
+
+    public interface Listener {
+        void changed(char kind, String path);
+    }
+
+    private final int parallelism;
+
+    public Status() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public Status(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public static void main(String[] args) {
+        String dir = ".";
+        if (args.length > 0) {
+            dir = args[0];
+        }
+        try {
+            Listener print = new Listener() {
+                public void changed(char kind, String path) {
+                    System.out.println("  " + kind + " " + path);
+                }
+            };
+            Status status = new Status();
+            String head = new Commit().head();
+            if (head != null) {
+                System.out.println("Staged since " + head + ":");
+                status.indexVsTree(Commit.treeOf(head), print);
+            }
+            System.out.println("Not staged:");
+            status.workingVsIndex(dir, print);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Walks dir with a DirScanner (one stat per entry, many in flight) and
+    // compares each file with its index entry. Files whose stat data
+    // matches git/index.stat are not read at all. 'A' is a file missing
+    // from the index, 'D' an index entry under dir with no file. Ignored
+    // files (see IgnoreRules) are not reported unless they are staged, and
+    // ignored directories holding nothing staged are not walked. The
+    // listener is called from one thread at a time, but in no particular
+    // order.
+    public void workingVsIndex(String dir, Listener listener) throws IOException {
+        final String root = normalize(dir);
+        final ConcurrentHashMap<String, String> remaining = new ConcurrentHashMap<String, String>(readIndex());
+        final StatCache stats = StatCache.load();
+        final ArrayList<String> recorded = new ArrayList<String>();
+        final Listener out = serialized(listener);
+        final IgnoreRules rules = IgnoreRules.load();
+        final HashSet<String> trackedDirs = dirsOf(remaining.keySet());
+
+        // Staged paths are compared even when a rule ignores them
+        IgnoreRules ignore = new IgnoreRules() {
+            public boolean isIgnored(String path, boolean isDirectory) {
+                String p = normalize(path);
+                if (isDirectory == true) {
+                    return p.equals("git") || (rules.isIgnored(p, true) && !trackedDirs.contains(p));
+                }
+                return rules.isIgnored(p, false) && !remaining.containsKey(p);
+            }
+        };
+        if (new File(dir).isDirectory()) {
+            new DirScanner(parallelism, ignore).scan(dir, new DirScanner.Handler() {
+                public String file(String path, BasicFileAttributes attrs) throws IOException {
+                    check(path, normalize(path), attrs, remaining, stats, recorded, out);
+                    return null;
+                }
+            });
+        }
+
+        ArrayList<String> gone = new ArrayList<String>();
+        for (String path : remaining.keySet()) {
+            if (inside(path, root)) {
+                gone.add(path);
+            }
+        }
+        Collections.sort(gone);
+        int i = 0;
+        while (i < gone.size()) {
+            out.changed('D', gone.get(i));
+            i = i + 1;
+        }
+        if (recorded.size() == 0) {
+            return;
+        }
+        // Another add or checkout may have saved the stat cache since it was
+        // loaded, so only the entries recorded here go into a fresh copy
+        RepoLock lock = RepoLock.lock(new File("git" + File.separator + "index"));
+        try {
+            StatCache fresh = StatCache.load();
+            synchronized (stats) {
+                i = 0;
+                while (i < recorded.size()) {
+                    fresh.copyFrom(stats, recorded.get(i));
+                    i = i + 1;
+                }
+            }
+            fresh.save();
+        } finally {
+            lock.release();
+        }
+    }
+
+    // Runs on scanner threads, so the stat cache (and recorded, the paths
+    // added to it) is only touched while holding it
+    private static void check(String file, String path, BasicFileAttributes attrs,
+            ConcurrentHashMap<String, String> remaining, StatCache stats, List<String> recorded, Listener out)
+            throws IOException {
+        String staged = remaining.remove(path);
+        if (staged == null) {
+            out.changed('A', path);
+            return;
+        }
+        String hash;
+        synchronized (stats) {
+            hash = stats.lookup(path, attrs);
+        }
+        if (hash == null) {
+            hash = Blob.hashOf(file);
+            if (hash.equals(staged)) {
+                // Only the stat data changed; remember it for next time
+                synchronized (stats) {
+                    stats.record(path, hash, attrs);
+                    recorded.add(path);
+                }
+            }
+        }
+        if (!hash.equals(staged)) {
+            out.changed('M', path);
+        }
+    }
+
+    // Compares git/index with a root tree, e.g. a commit's. 'A' is an index
+    // entry missing from the tree, 'D' a tree entry missing from the index.
+    // Subtrees that match the index's cache tree are skipped.
+    public void indexVsTree(String treeSha, Listener listener) throws IOException {
+        TreeMap<String, String> remaining = readIndex();
+        File indexFile = new File("git" + File.separator + "index");
+        CacheTree cache = CacheTree.load();
+        if (!cache.matches(CacheTree.stampOf(indexFile))) {
+            cache.clear();
+        }
+        compareTree(treeSha, "", remaining, cache, listener);
+        for (Map.Entry<String, String> e : remaining.entrySet()) {
+            listener.changed('A', e.getKey());
+        }
+    }
+
+    private void compareTree(String treeSha, String dir, TreeMap<String, String> remaining,
+            CacheTree cache, Listener listener) throws IOException {
+        if (treeSha.equals(cache.shaOf(dir)) && cache.countOf(dir) == under(remaining, dir).size()) {
+            under(remaining, dir).clear();
+            return;
+        }
+        String text = readText(treeSha);
+        if (text == null) {
+            throw new IOException("Tree not found: " + treeSha);
+        }
+        String[] lines = text.split("\n");
+        int i = 0;
+        while (i < lines.length) {
+            String[] parts = lines[i].split(" ", 3);
+            if (parts.length == 3) {
+                String path = child(dir, parts[2]);
+                if (parts[0].equals("tree")) {
+                    compareTree(parts[1], path, remaining, cache, listener);
+                } else {
+                    String staged = remaining.remove(path);
+                    if (staged == null) {
+                        listener.changed('D', path);
+                    } else if (!staged.equals(parts[1])) {
+                        listener.changed('M', path);
+                    }
+                }
+            }
+            i = i + 1;
+        }
+    }
+
+    // path -> staged sha1
+    private static TreeMap<String, String> readIndex() throws IOException {
+        List<String> lines = new Index().entries();
+        TreeMap<String, String> out = new TreeMap<String, String>();
+        int i = 0;
+        while (i < lines.size()) {
+            String line = lines.get(i);
+            int space = line.indexOf(' ');
+            if (space != -1) {
+                out.put(line.substring(space + 1), line.substring(0, space));
+            }
+            i = i + 1;
+        }
+        return out;
+    }
+
+    private static Map<String, String> under(TreeMap<String, String> map, String dir) {
+        if (dir.length() == 0) {
+            return map;
+        }
+        // '0' sorts right after '/'
+        return map.subMap(dir + "/", dir + "0");
+    }
+
+    private static Listener serialized(final Listener listener) {
+        return new Listener() {
+            public synchronized void changed(char kind, String path) {
+                listener.changed(kind, path);
+            }
+        };
+    }
+
+    private static String readText(String sha) throws IOException {
+        return ObjectStores.get().getText(sha);
+    }
+
+    // Trees from WorkingList name entries by basename, trees from
+    // Tree.createTree by their whole path
+    private static String child(String dir, String name) {
+        if (name.indexOf('/') != -1 || dir.length() == 0) {
+            return normalize(name);
+        }
+        return dir + "/" + name;
+    }
+
+    // Every parent directory of the paths
+    private static HashSet<String> dirsOf(Iterable<String> paths) {
+        HashSet<String> dirs = new HashSet<String>();
+        for (String p : paths) {
+            int slash = p.lastIndexOf('/');
+            while (slash > 0 && dirs.add(p.substring(0, slash))) {
+                slash = p.lastIndexOf('/', slash - 1);
+            }
+        }
+        return dirs;
+    }
+
+    private static boolean inside(String path, String dir) {
+        if (dir.length() == 0) {
+            return true;
+        }
+        return path.startsWith(dir + "/");
+    }
+
+    private static String normalize(String p) {
+        String s = p.replace('\\', '/');
+        while (s.startsWith("./")) {
+            s = s.substring(2);
+        }
+        if (s.equals(".")) {
+            s = "";
+        }
+        while (s.endsWith("/")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return s;
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+
+public class StatusTester {
+
+    public static void main(String[] args) {
+        try {
+            deleteRecursively(new File("git"));
+            deleteRecursively(new File("sproj"));
+            ObjectStores.clearCache();
+            new Git().initializeRepository();
+
+            makeFile("sproj/a.txt", "a\n");
+            makeFile("sproj/lib/b.txt", "b\n");
+            makeFile("sproj/lib/deep/c.txt", "c\n");
+            makeFile("sproj/docs/d.txt", "d\n");
+            ArrayList<String> paths = new ArrayList<String>();
+            paths.add("sproj/a.txt");
+            paths.add("sproj/lib/b.txt");
+            paths.add("sproj/lib/deep/c.txt");
+            paths.add("sproj/docs/d.txt");
+            Index idx = new Index();
+            idx.addAll(paths);
+            String tree = new WorkingList().buildRoot();
+            String fullTree = new Tree().createTree("sproj");
+
+            Status status = new Status(4);
+            ArrayList<String> clean = new ArrayList<String>();
+            status.workingVsIndex("sproj", collect(clean));
+            status.indexVsTree(tree, collect(clean));
+            status.indexVsTree(fullTree, collect(clean));
+            if (clean.size() == 0) {
+                System.out.println("Clean status: PASS");
+            } else {
+                System.out.println("Clean status: FAIL " + clean);
+            }
+
+            // A file that was only touched is hashed once and its new stat
+            // data saved for the next status
+            File touched = new File("sproj/a.txt");
+            touched.setLastModified(touched.lastModified() - 5000);
+            ArrayList<String> afterTouch = new ArrayList<String>();
+            status.workingVsIndex("sproj", collect(afterTouch));
+            BasicFileAttributes attrs = Files.readAttributes(touched.toPath(), BasicFileAttributes.class);
+            if (afterTouch.size() == 0 && StatCache.load().lookup("sproj/a.txt", attrs) != null) {
+                System.out.println("Stat data saved by status: PASS");
+            } else {
+                System.out.println("Stat data saved by status: FAIL " + afterTouch);
+            }
+
+            makeFile("sproj/lib/b.txt", "b changed\n");
+            new File("sproj/docs/d.txt").delete();
+            makeFile("sproj/lib/deep/e.txt", "e\n");
+            ArrayList<String> working = new ArrayList<String>();
+            status.workingVsIndex("sproj", collect(working));
+            Collections.sort(working);
+            if (working.toString().equals("[A sproj/lib/deep/e.txt, D sproj/docs/d.txt, M sproj/lib/b.txt]")) {
+                System.out.println("Working directory vs index: PASS");
+            } else {
+                System.out.println("Working directory vs index: FAIL " + working);
+            }
+
+            paths.clear();
+            paths.add("sproj/lib/b.txt");
+            paths.add("sproj/lib/deep/e.txt");
+            idx.addAll(paths);
+            ArrayList<String> staged = new ArrayList<String>();
+            status.indexVsTree(tree, collect(staged));
+            Collections.sort(staged);
+            ArrayList<String> stagedFull = new ArrayList<String>();
+            status.indexVsTree(fullTree, collect(stagedFull));
+            Collections.sort(stagedFull);
+            if (staged.toString().equals("[A sproj/lib/deep/e.txt, M sproj/lib/b.txt]") && staged.equals(stagedFull)) {
+                System.out.println("Index vs tree: PASS");
+            } else {
+                System.out.println("Index vs tree: FAIL " + staged + " " + stagedFull);
+            }
+
+            // Staging outside the committed directory only adds that path
+            String head = new Commit().commit("Tester", "sproj");
+            makeFile("sproj_top.txt", "top\n");
+            idx.add("sproj_top.txt");
+            ArrayList<String> outside = new ArrayList<String>();
+            status.indexVsTree(Commit.treeOf(head), collect(outside));
+            if (outside.toString().equals("[A sproj_top.txt]")) {
+                System.out.println("Index vs commit after staging elsewhere: PASS");
+            } else {
+                System.out.println("Index vs commit after staging elsewhere: FAIL " + outside);
+            }
+
+            new File("sproj_top.txt").delete();
+            deleteRecursively(new File("sproj"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static Status.Listener collect(final ArrayList<String> out) {
+        return new Status.Listener() {
+            public void changed(char kind, String path) {
+                out.add(kind + " " + path);
+            }
+        };
+    }
+
+    private static void makeFile(String name, String content) throws Exception {
+        File f = new File(name);
+        if (f.getParentFile() != null) {
+            f.getParentFile().mkdirs();
+        }
+        FileWriter w = new FileWriter(f, false);
+        w.write(content);
+        w.flush();
+        w.close();
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            File[] kids = f.listFiles();
+            if (kids != null) {
+                int i = 0;
+                while (i < kids.length) {
+                    deleteRecursively(kids[i]);
+                    i = i + 1;
+                }
+            }
+        }
+        f.delete();
+    }
+}
@@ -1,13 +1,36 @@
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
 
 public class Tree {
 
+    // Stats and blob reads kept in flight at once (see DirScanner); 1
+    // means the serial walk
+    private final int parallelism;
+    // Chunk counts of the last createTree (see Blob.CHUNK)
+    private ChunkStats chunkStats = new ChunkStats();
+
+    public Tree() {
+        this(1);
+    }
+
+    public Tree(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public ChunkStats getChunkStats() {
+        return chunkStats;
+    }
+
     public String createTree(String dirPath) throws IOException {
         File dir = new File(dirPath);
         if (!dir.exists()) {
@@ -17,56 +40,87 @@ public class Tree {
             throw new IOException("Not a directory: " + dirPath);
         }
 
+        // .gitignore and git/info/exclude; ignored directories are never walked
+        IgnoreRules ignore = IgnoreRules.load();
+        chunkStats = new ChunkStats();
+        if (parallelism > 1) {
+            return createTreeParallel(dirPath, ignore);
+        }
+        return createTreeSerial(dir.getPath(), ignore);
+    }
+
+    private String createTreeSerial(String dirPath, IgnoreRules ignore) throws IOException {
+        // One stat per entry instead of isFile and then isDirectory
         StringBuilder sb = new StringBuilder();
-        File[] items = dir.listFiles();
-        if (items != null) {
-            int i = 0;
-            while (i < items.length) {
-                File f = items[i];
-                if (f.isFile()) {
-                    String blobHash = Blob.createBlobFromPath(f.getPath());
-                    sb.append("blob ").append(blobHash).append(" ").append(f.getPath()).append("\n");
-                } else {
-                    if (f.isDirectory()) {
-                        String childHash = createTree(f.getPath());
-                        sb.append("tree ").append(childHash).append(" ").append(f.getPath()).append("\n");
-                    }
-                }
-                i = i + 1;
+        List<DirScanner.Node> items = DirScanner.list(dirPath, ignore);
+        int i = 0;
+        while (i < items.size()) {
+            DirScanner.Node n = items.get(i);
+            if (n.isFile()) {
+                String blobHash = Blob.createBlobFromPath(n.path, chunkStats);
+                sb.append("blob ").append(blobHash).append(" ").append(n.path).append("\n");
+            } else {
+                String childHash = createTreeSerial(n.path, ignore);
+                sb.append("tree ").append(childHash).append(" ").append(n.path).append("\n");
             }
+            i = i + 1;
         }
 
+        return writeTree(sb);
+    }
+
+    private String writeTree(StringBuilder sb) throws IOException {
         String data = trimOne(sb.toString());
-        String treeHash = sha1OfString(data);
+        String treeHash = Hashing.hash(data);
         ensureObjects();
-        File out = new File("git" + File.separator + "objects", treeHash);
-        if (!out.exists()) {
-            FileWriter w = new FileWriter(out, false);
-            w.write(data);
-            w.flush();
-            w.close();
-        }
+        ObjectStores.get().put(treeHash, data.getBytes(StandardCharsets.UTF_8));
         return treeHash;
     }
 
+    // Stores every blob while the scanner walks, with many stats and reads
+    // in flight, then writes the trees from the snapshot in listing order so
+    // the text (and hash) is the same as the serial walk.
+    private String createTreeParallel(String dirPath, IgnoreRules ignore) throws IOException {
+        DirScanner scanner = new DirScanner(parallelism, ignore);
+        final ChunkStats stats = chunkStats;
+        DirScanner.Node root = scanner.scan(dirPath, new DirScanner.Handler() {
+            public String file(String path, BasicFileAttributes attrs) throws IOException {
+                return Blob.createBlobFromPath(path, stats);
+            }
+        });
+        return writeSnapshot(root);
+    }
+
+    private String writeSnapshot(DirScanner.Node dir) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        List<DirScanner.Node> items = dir.children();
+        int i = 0;
+        while (i < items.size()) {
+            DirScanner.Node n = items.get(i);
+            if (n.isFile()) {
+                sb.append("blob ").append(n.value()).append(" ").append(n.path).append("\n");
+            } else {
+                sb.append("tree ").append(writeSnapshot(n)).append(" ").append(n.path).append("\n");
+            }
+            i = i + 1;
+        }
+        return writeTree(sb);
+    }
+
     public String readObject(String hash) {
         try {
-            File f = new File("git" + File.separator + "objects", hash);
-            byte[] b = Files.readAllBytes(f.toPath());
-            return new String(b, StandardCharsets.UTF_8);
+            return ObjectStores.get().getText(hash);
         } catch (Exception e) {
             return null;
         }
     }
 
     public boolean objectExists(String hash) {
-        File f = new File("git" + File.separator + "objects", hash);
-        if (f.exists()) {
-            if (f.isFile()) {
-                return true;
-            }
+        try {
+            return ObjectStores.get().exists(hash);
+        } catch (IOException e) {
+            return false;
         }
-        return false;
     }
 
     public boolean linePresent(String content, String expected) {
@@ -114,30 +168,4 @@ public class Tree {
             return s;
         }
     }
-
-    private String sha1OfString(String input) {
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-1 not available");
-        }
-        byte[] digest = md.digest(input.getBytes(StandardCharsets.UTF_8));
-        return toHex(digest);
-        }
-
-    private String toHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        int i = 0;
-        while (i < bytes.length) {
-            int v = bytes[i] & 0xff;
-            String h = Integer.toHexString(v);
-            if (h.length() == 1) {
-                sb.append('0');
-            }
-            sb.append(h);
-            i = i + 1;
-        }
-        return sb.toString();
-    }
 }
@@ -6,8 +6,16 @@ public class TreeTester {
             System.out.println("Tree hash: " + hash);
             System.out.println("Tree content:");
             System.out.println(t.readObject(hash));
+
+            Tree p = new Tree(4);
+            String parallelHash = p.createTree("myProgram");
+            if (parallelHash.equals(hash)) {
+                System.out.println("Parallel tree matches serial: PASS");
+            } else {
+                System.out.println("Parallel tree matches serial: FAIL");
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,407 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Checks the whole object store, like git fsck:
+//   corrupt   the object cannot be read, its content does not hash to its
+//             id, or a tree or commit reached from HEAD does not parse
+//   missing   HEAD, git/index or a reachable tree, commit or manifest names
+//             an object the store does not have
+//   dangling  the object is not reachable from HEAD or git/index (e.g. a
+//             tree that was never committed)
+// Objects are read straight from the store's backend, not the cache, and
+// rehashed on a pool so several are in flight at once; with enough threads
+// the disk, not SHA-1, sets the speed. Then the objects are walked from HEAD
+// and every id in git/index, a level at a time on the same pool, and only
+// what is reached is parsed: a commit's tree and parents, a tree's entries,
+// the chunks of a blob stored as a manifest. Progress is printed about once
+// a second.
+//
+//   java Verify [threads]
+// exits with status 1 if anything is wrong, for nightly jobs.
+public class Verify {
+
+    // What an id was reached as, which decides how it is parsed
+    static final int COMMIT = 0;
+    static final int TREE = 1;
+    static final int BLOB = 2;
+
+    public static class Report {
+        public long objects;
+        public long bytes;
+        public long millis;
+        public final ArrayList<String> corrupt = new ArrayList<String>();
+        public final ArrayList<String> missing = new ArrayList<String>();
+        public final ArrayList<String> dangling = new ArrayList<String>();
+
+        // Corrupt or missing objects; dangling ones are only wasted space
+        public boolean ok() {
+            return corrupt.size() == 0 && missing.size() == 0;
+        }
+
+        public double megabytesPerSecond() {
+            if (millis == 0) {
+                return 0;
+            }
+            return bytes / 1048576.0 / (millis / 1000.0);
+        }
+
+        public String toString() {
+            return objects + " objects, " + bytes + " bytes in " + millis + " ms ("
+                    + String.format("%.1f", megabytesPerSecond()) + " MB/s): " + corrupt.size() + " corrupt, "
+                    + missing.size() + " missing, " + dangling.size() + " dangling";
+        }
+    }
+
+    private final int parallelism;
+    private final PrintStream progress;
+
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong doneBytes = new AtomicLong();
+
+    public Verify() {
+        this(Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    // progress may be null for a quiet run
+    public Verify(int parallelism, PrintStream progress) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.progress = progress;
+    }
+
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length > 0) {
+            threads = Integer.parseInt(args[0]);
+        }
+        try {
+            Report r = new Verify(threads, System.out).run();
+            print("corrupt", r.corrupt);
+            print("missing", r.missing);
+            print("dangling", r.dangling);
+            System.out.println(r);
+            if (!r.ok()) {
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void print(String kind, List<String> ids) {
+        int i = 0;
+        while (i < ids.size()) {
+            System.out.println(kind + " " + ids.get(i));
+            i = i + 1;
+        }
+    }
+
+    public Report run() throws IOException {
+        final ObjectStore objects = ObjectStores.get().uncached();
+        // Loose and packed copies of one object are checked once
+        final ArrayList<String> ids = new ArrayList<String>(new LinkedHashSet<String>(objects.list()));
+        final HashSet<String> present = new HashSet<String>(ids);
+        final ConcurrentHashMap<String, Boolean> corrupt = new ConcurrentHashMap<String, Boolean>();
+        final ConcurrentHashMap<String, Boolean> manifests = new ConcurrentHashMap<String, Boolean>();
+        final Report report = new Report();
+        done.set(0);
+        doneBytes.set(0);
+
+        long start = System.currentTimeMillis();
+        Thread reporter = startProgress(ids.size(), start);
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        ConcurrentHashMap<String, Boolean> reached;
+        try {
+            ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            int i = 0;
+            while (i < ids.size()) {
+                final String id = ids.get(i);
+                tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        boolean good;
+                        try {
+                            good = check(objects, id, manifests);
+                        } catch (IOException e) {
+                            good = false;
+                        } catch (RuntimeException e) {
+                            good = false;
+                        }
+                        if (good == false) {
+                            corrupt.put(id, Boolean.TRUE);
+                        }
+                        done.incrementAndGet();
+                        return null;
+                    }
+                });
+                i = i + 1;
+            }
+            runAll(pool, tasks);
+            reached = walk(pool, objects, present, corrupt, manifests);
+        } finally {
+            pool.shutdown();
+            if (reporter != null) {
+                reporter.interrupt();
+            }
+        }
+
+        for (String name : reached.keySet()) {
+            if (!present.contains(name)) {
+                report.missing.add(name);
+            }
+        }
+        report.corrupt.addAll(corrupt.keySet());
+        int i = 0;
+        while (i < ids.size()) {
+            String id = ids.get(i);
+            if (!reached.containsKey(id)) {
+                report.dangling.add(id);
+            }
+            i = i + 1;
+        }
+        Collections.sort(report.corrupt);
+        Collections.sort(report.missing);
+        Collections.sort(report.dangling);
+        report.objects = ids.size();
+        report.bytes = doneBytes.get();
+        report.millis = System.currentTimeMillis() - start;
+        return report;
+    }
+
+    private static void runAll(ExecutorService pool, List<Callable<Void>> tasks) throws IOException {
+        try {
+            pool.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Verify interrupted");
+        }
+    }
+
+    // Every id reachable from HEAD and git/index. Each level of the walk is
+    // parsed in parallel and names the next one; an id is parsed at most
+    // once, and not at all if it is missing or corrupt. A tree or commit
+    // that does not parse is added to corrupt.
+    private ConcurrentHashMap<String, Boolean> walk(ExecutorService pool, final ObjectStore objects,
+            Set<String> present, final ConcurrentHashMap<String, Boolean> corrupt,
+            final ConcurrentHashMap<String, Boolean> manifests) throws IOException {
+        ConcurrentHashMap<String, Boolean> reached = new ConcurrentHashMap<String, Boolean>();
+        ArrayList<String> level = new ArrayList<String>();
+        ArrayList<Integer> kinds = new ArrayList<Integer>();
+        String head = new Commit().head();
+        if (head != null) {
+            level.add(head);
+            kinds.add(COMMIT);
+        }
+        List<String> lines = new Index().entries();
+        int i = 0;
+        while (i < lines.size()) {
+            int space = lines.get(i).indexOf(' ');
+            if (space != -1) {
+                level.add(lines.get(i).substring(0, space));
+                kinds.add(BLOB);
+            }
+            i = i + 1;
+        }
+
+        while (level.size() > 0) {
+            final ArrayList<String> nextIds = new ArrayList<String>();
+            final ArrayList<Integer> nextKinds = new ArrayList<Integer>();
+            ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            i = 0;
+            while (i < level.size()) {
+                final String id = level.get(i);
+                final int kind = kinds.get(i);
+                i = i + 1;
+                if (reached.putIfAbsent(id, Boolean.TRUE) != null || !present.contains(id)
+                        || corrupt.containsKey(id)) {
+                    continue;
+                }
+                if (kind == BLOB && !manifests.containsKey(id)) {
+                    continue;
+                }
+                tasks.add(new Callable<Void>() {
+                    public Void call() {
+                        ArrayList<String> names = new ArrayList<String>();
+                        ArrayList<Integer> nameKinds = new ArrayList<Integer>();
+                        boolean good;
+                        try {
+                            byte[] data = objects.get(id);
+                            good = data != null && namesIn(data, kind, names, nameKinds);
+                        } catch (IOException e) {
+                            good = false;
+                        } catch (RuntimeException e) {
+                            good = false;
+                        }
+                        if (good == false) {
+                            corrupt.put(id, Boolean.TRUE);
+                            return null;
+                        }
+                        synchronized (nextIds) {
+                            nextIds.addAll(names);
+                            nextKinds.addAll(nameKinds);
+                        }
+                        return null;
+                    }
+                });
+            }
+            runAll(pool, tasks);
+            level = nextIds;
+            kinds = nextKinds;
+        }
+        return reached;
+    }
+
+    // Rehashes one object; false if the content does not match the id.
+    // Objects stored with the manifest type are added to manifests.
+    private boolean check(ObjectStore objects, String id, Map<String, Boolean> manifests) throws IOException {
+        InputStream in = objects.open(id);
+        if (in == null) {
+            return false;
+        }
+        MessageDigest md = Hashing.newDigest();
+        boolean manifest = false;
+        long size = 0;
+        try {
+            byte[] buffer = new byte[65536];
+            int read = in.read(buffer);
+            if (read > 0 && startsWith(buffer, read, "manifest ")) {
+                manifest = Manifest.TYPE.equals(objects.typeOf(id));
+            }
+            while (read != -1) {
+                md.update(buffer, 0, read);
+                size = size + read;
+                read = in.read(buffer);
+            }
+        } finally {
+            in.close();
+        }
+        doneBytes.addAndGet(size);
+        if (!Hex.encode(md.digest()).equals(id.toLowerCase())) {
+            return false;
+        }
+        if (manifest == true) {
+            manifests.put(id, Boolean.TRUE);
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] b, int n, String prefix) {
+        if (n < prefix.length()) {
+            return false;
+        }
+        int i = 0;
+        while (i < prefix.length()) {
+            if (b[i] != prefix.charAt(i)) {
+                return false;
+            }
+            i = i + 1;
+        }
+        return true;
+    }
+
+    // Adds the ids that data, the content of an object reached as kind,
+    // names to names and what each is to kinds. A blob only names anything
+    // when it is a manifest. False if a commit, tree or manifest does not
+    // parse.
+    static boolean namesIn(byte[] data, int kind, List<String> names, List<Integer> kinds) {
+        if (kind == BLOB) {
+            Manifest m = Manifest.parse(data);
+            if (m == null) {
+                return false;
+            }
+            List<String> chunks = m.ids();
+            int i = 0;
+            while (i < chunks.size()) {
+                names.add(chunks.get(i));
+                kinds.add(BLOB);
+                i = i + 1;
+            }
+            return true;
+        }
+        String text = new String(data, StandardCharsets.UTF_8);
+        String[] lines = text.split("\n", -1);
+        if (kind == COMMIT) {
+            // Header lines up to the blank line before the message
+            boolean tree = false;
+            int i = 0;
+            while (i < lines.length && lines[i].length() > 0) {
+                String[] parts = lines[i].split(" ", 2);
+                if (parts[0].equals("tree") || parts[0].equals("parent")) {
+                    if (parts.length != 2 || !Hex.isHex(parts[1])) {
+                        return false;
+                    }
+                    tree = tree || parts[0].equals("tree");
+                    names.add(parts[1]);
+                    if (parts[0].equals("tree")) {
+                        kinds.add(TREE);
+                    } else {
+                        kinds.add(COMMIT);
+                    }
+                }
+                i = i + 1;
+            }
+            return tree;
+        }
+        if (text.length() == 0) {
+            return true;
+        }
+        int i = 0;
+        while (i < lines.length) {
+            String[] parts = lines[i].split(" ", 3);
+            if (parts.length != 3 || !Hex.isHex(parts[1])) {
+                return false;
+            }
+            if (parts[0].equals("blob")) {
+                kinds.add(BLOB);
+            } else if (parts[0].equals("tree")) {
+                kinds.add(TREE);
+            } else {
+                return false;
+            }
+            names.add(parts[1]);
+            i = i + 1;
+        }
+        return true;
+    }
+
+    private Thread startProgress(final int total, final long start) {
+        if (progress == null) {
+            return null;
+        }
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    while (true) {
+                        Thread.sleep(1000);
+                        long ms = Math.max(1, System.currentTimeMillis() - start);
+                        progress.println("verified " + done.get() + "/" + total + " objects, "
+                                + (doneBytes.get() / 1048576) + " MB, "
+                                + String.format("%.1f", doneBytes.get() / 1048576.0 / (ms / 1000.0)) + " MB/s");
+                    }
+                } catch (InterruptedException e) {
+                    // Verify finished
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+}
@@ -0,0 +1,116 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+public class VerifyTester {
+
+    public static void main(String[] args) {
+        try {
+            deleteRecursively(new File("git"));
+            deleteRecursively(new File("vproj"));
+            ObjectStores.clearCache();
+            new Git().initializeRepository();
+
+            writeFile("vproj/a.txt", "a\n");
+            writeFile("vproj/lib/b.txt", "b\n");
+            writeFile("vproj/lib/c.txt", "c\n");
+            ArrayList<String> paths = new ArrayList<String>();
+            paths.add("vproj/a.txt");
+            paths.add("vproj/lib/b.txt");
+            paths.add("vproj/lib/c.txt");
+            new Index().addAll(paths);
+            new Commit().commit("Tester", "first");
+            writeFile("vproj/a.txt", "a2\n");
+            new Index().add("vproj/a.txt");
+            new Commit().commit("Tester", "second");
+
+            // a healthy repository has nothing to report
+            Verify.Report clean = new Verify(4, null).run();
+            if (clean.ok() && clean.dangling.size() == 0 && clean.objects > 0 && clean.bytes > 0) {
+                System.out.println("Clean repository: PASS");
+            } else {
+                System.out.println("Clean repository: FAIL " + clean + " " + clean.dangling);
+            }
+
+            // a blob nothing names is dangling
+            writeFile("vproj/loose.txt", "nobody points here\n");
+            String stray = Blob.createBlobFromPath("vproj/loose.txt");
+            Verify.Report withStray = new Verify(4, null).run();
+            if (withStray.ok() && withStray.dangling.size() == 1 && withStray.dangling.get(0).equals(stray)) {
+                System.out.println("Dangling objects: PASS");
+            } else {
+                System.out.println("Dangling objects: FAIL " + withStray.dangling);
+            }
+
+            // damaged and deleted objects are caught
+            String b = new Index().lookup("vproj/lib/b.txt");
+            String c = new Index().lookup("vproj/lib/c.txt");
+            FileOutputStream out = new FileOutputStream(ObjectPath.find(b));
+            out.write("not b\n".getBytes(StandardCharsets.UTF_8));
+            out.close();
+            ObjectPath.find(c).delete();
+            Verify.Report broken = new Verify(2, null).run();
+            if (!broken.ok() && broken.corrupt.contains(b) && broken.missing.contains(c) && broken.corrupt.size() == 1
+                    && broken.missing.size() == 1) {
+                System.out.println("Corrupt and missing objects: PASS");
+            } else {
+                System.out.println("Corrupt and missing objects: FAIL " + broken.corrupt + " " + broken.missing);
+            }
+
+            // packed objects are verified the same way
+            writeFile("vproj/lib/b.txt", "b\n");
+            writeFile("vproj/lib/c.txt", "c\n");
+            ObjectPath.find(b).delete();
+            Blob.createBlobFromPath("vproj/lib/b.txt");
+            Blob.createBlobFromPath("vproj/lib/c.txt");
+            Pack.packObjects(true);
+            ObjectStores.clearCache();
+            Verify.Report packed = new Verify(4, null).run();
+            if (packed.ok() && packed.objects == withStray.objects) {
+                System.out.println("Packed objects: PASS");
+            } else {
+                System.out.println("Packed objects: FAIL " + packed);
+            }
+
+            // a file that reads like a tree is still just a blob
+            writeFile("vproj/fake.txt", "blob 0000000000000000000000000000000000000000 ghost.txt\n");
+            new Index().add("vproj/fake.txt");
+            Verify.Report lookalike = new Verify(4, null).run();
+            if (lookalike.ok() && lookalike.missing.size() == 0) {
+                System.out.println("Tree lookalike not parsed: PASS");
+            } else {
+                System.out.println("Tree lookalike not parsed: FAIL " + lookalike.missing);
+            }
+
+            deleteRecursively(new File("vproj"));
+            deleteRecursively(new File("git"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeFile(String name, String content) throws Exception {
+        File f = new File(name);
+        if (f.getParentFile() != null) {
+            f.getParentFile().mkdirs();
+        }
+        FileOutputStream out = new FileOutputStream(f, false);
+        out.write(content.getBytes(StandardCharsets.UTF_8));
+        out.close();
+    }
+
+    private static void deleteRecursively(File f) {
+        if (f.isDirectory()) {
+            File[] kids = f.listFiles();
+            if (kids != null) {
+                int i = 0;
+                while (i < kids.length) {
+                    deleteRecursively(kids[i]);
+                    i = i + 1;
+                }
+            }
+        }
+        f.delete();
+    }
+}
@@ -1,10 +1,7 @@
 import java.io.File;
-import java.io.FileWriter;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -23,7 +20,244 @@ public class WorkingList {
         }
     }
 
+    // A directory whose tree is still being collected during build
+    private static class Frame {
+        String dir;
+        ArrayList<String> lines;
+        int count; // index entries under dir
+
+        Frame(String d) {
+            this.dir = d;
+            this.lines = new ArrayList<String>();
+            this.count = 0;
+        }
+    }
+
+    // Trees of directories left unchanged since the last build
+    private CacheTree cacheTree;
+
+    // One pass over the sorted index with a stack of open directories.
+    // Entries of a directory are contiguous once sorted by path, so each
+    // tree is finished (and written once) as soon as the walk leaves it.
+    // Holds the index lock so the index and git/index.tree are not changed
+    // under the build. Like the original builder, the result is the tree of
+    // the deepest directory that holds every entry, not always the root.
     public String build() throws Exception {
+        return build(false);
+    }
+
+    // Same, but always the tree of the repository root, so the paths it
+    // names are whole. This is what commits record.
+    public String buildRoot() throws Exception {
+        return build(true);
+    }
+
+    private String build(boolean fromRoot) throws Exception {
+        RepoLock lock = RepoLock.lock(new File("git" + File.separator + "index"));
+        try {
+            return buildLocked(fromRoot);
+        } finally {
+            lock.release();
+        }
+    }
+
+    private String buildLocked(boolean fromRoot) throws Exception {
+        ensureObjects();
+        String stamp = CacheTree.stampOf(new File("git" + File.separator + "index"));
+        ArrayList<Item> list = read();
+        sort(list);
+
+        cacheTree = CacheTree.load();
+        if (!cacheTree.matches(stamp)) {
+            cacheTree.clear();
+        }
+
+        String top = "";
+        if (fromRoot == false) {
+            top = commonDir(list);
+        }
+        String[] result = new String[1];
+        if (cachedTree(top, list.size())) {
+            result[0] = cacheTree.shaOf(top);
+            cacheTree.save(stamp);
+            return result[0];
+        }
+
+        ArrayList<Frame> stack = new ArrayList<Frame>();
+        stack.add(new Frame(""));
+
+        int i = 0;
+        while (i < list.size()) {
+            Item it = list.get(i);
+            String parent = findParentDir(it.path);
+            while (!inside(parent, stack.get(stack.size() - 1).dir)) {
+                finish(stack, top, result);
+            }
+
+            // Entries under an unchanged directory are skipped as a whole
+            String cached = cachedDirOnTheWay(stack.get(stack.size() - 1).dir, parent, top);
+            if (cached != null) {
+                int end = i;
+                String prefix = cached + "/";
+                while (end < list.size() && list.get(end).path.startsWith(prefix)) {
+                    end = end + 1;
+                }
+                if (cachedTree(cached, end - i)) {
+                    open(stack, findParentDir(cached));
+                    Frame f = stack.get(stack.size() - 1);
+                    f.lines.add("tree " + cacheTree.shaOf(cached) + " " + base(cached));
+                    f.count = f.count + (end - i);
+                    i = end;
+                    continue;
+                }
+                cacheTree.remove(cached);
+            }
+
+            open(stack, parent);
+            Frame f = stack.get(stack.size() - 1);
+            String name = base(it.path);
+            if (name.length() > 0) {
+                f.lines.add("blob " + it.sha + " " + name);
+            }
+            f.count = f.count + 1;
+            i = i + 1;
+        }
+        while (stack.size() > 0) {
+            finish(stack, top, result);
+        }
+        cacheTree.save(stamp);
+        return result[0];
+    }
+
+    // True if the cache has a tree for dir covering exactly `count` entries
+    // and that tree is still in the object store
+    private boolean cachedTree(String dir, int count) throws Exception {
+        String sha = cacheTree.shaOf(dir);
+        if (sha == null) {
+            return false;
+        }
+        if (cacheTree.countOf(dir) != count || !ObjectStores.get().exists(sha)) {
+            cacheTree.remove(dir);
+            return false;
+        }
+        return true;
+    }
+
+    // Outermost cached directory strictly below `from` (the innermost open
+    // directory) on the way down to `to`, not counting `top` itself
+    private String cachedDirOnTheWay(String from, String to, String top) {
+        if (to.equals(from)) {
+            return null;
+        }
+        String rest;
+        if (from.length() == 0) {
+            rest = to;
+        } else {
+            rest = to.substring(from.length() + 1);
+        }
+        String path = from;
+        int start = 0;
+        while (start <= rest.length()) {
+            int slash = rest.indexOf('/', start);
+            if (slash == -1) {
+                slash = rest.length();
+            }
+            String part = rest.substring(start, slash);
+            if (path.length() == 0) {
+                path = part;
+            } else {
+                path = path + "/" + part;
+            }
+            if (!path.equals(top) && inside(path, top) && cacheTree.shaOf(path) != null) {
+                return path;
+            }
+            start = slash + 1;
+        }
+        return null;
+    }
+
+    private void finish(ArrayList<Frame> stack, String top, String[] result) throws Exception {
+        Frame f = stack.remove(stack.size() - 1);
+        if (result[0] != null) {
+            // Directories above the result tree are never written
+            return;
+        }
+        Collections.sort(f.lines);
+        String data = join(f.lines);
+        String sha = Hashing.hash(data);
+        writeObj(sha, data);
+        cacheTree.put(f.dir, sha, f.count);
+        if (f.dir.equals(top)) {
+            result[0] = sha;
+        } else {
+            Frame parent = stack.get(stack.size() - 1);
+            parent.lines.add("tree " + sha + " " + base(f.dir));
+            parent.count = parent.count + f.count;
+        }
+    }
+
+    private void open(ArrayList<Frame> stack, String dir) {
+        String current = stack.get(stack.size() - 1).dir;
+        if (dir.equals(current)) {
+            return;
+        }
+        String rest;
+        if (current.length() == 0) {
+            rest = dir;
+        } else {
+            rest = dir.substring(current.length() + 1);
+        }
+        String path = current;
+        int start = 0;
+        while (start <= rest.length()) {
+            int slash = rest.indexOf('/', start);
+            if (slash == -1) {
+                slash = rest.length();
+            }
+            String part = rest.substring(start, slash);
+            if (path.length() == 0) {
+                path = part;
+            } else {
+                path = path + "/" + part;
+            }
+            stack.add(new Frame(path));
+            start = slash + 1;
+        }
+    }
+
+    private boolean inside(String path, String dir) {
+        if (dir.length() == 0) {
+            return true;
+        }
+        if (path.equals(dir)) {
+            return true;
+        }
+        return path.startsWith(dir + "/");
+    }
+
+    // Deepest directory containing every path. The list is sorted, so the
+    // common prefix of the first and last paths is shared by all of them.
+    private String commonDir(ArrayList<Item> list) {
+        if (list.size() == 0) {
+            return "";
+        }
+        String first = list.get(0).path;
+        String last = list.get(list.size() - 1).path;
+        int n = Math.min(first.length(), last.length());
+        int i = 0;
+        while (i < n && first.charAt(i) == last.charAt(i)) {
+            i = i + 1;
+        }
+        String prefix = first.substring(0, i);
+        int slash = prefix.lastIndexOf('/');
+        if (slash == -1) {
+            return "";
+        }
+        return prefix.substring(0, slash);
+    }
+
+    // The original bottom-up builder, kept to check build() against
+    public String buildLegacy() throws Exception {
         ensureObjects();
         ArrayList<Item> list = read();
         sort(list);
@@ -54,6 +288,15 @@ public class WorkingList {
         if (!idx.exists()) {
             return list;
         }
+        if (BinaryIndex.isBinary(idx)) {
+            BinaryIndex bin = BinaryIndex.cached(idx);
+            int i = 0;
+            while (i < bin.size()) {
+                list.add(new Item("blob", bin.shaAt(i), bin.pathAt(i).replace('\\', '/')));
+                i = i + 1;
+            }
+            return list;
+        }
         BufferedReader br = new BufferedReader(new FileReader(idx));
         String line = br.readLine();
         while (line != null) {
@@ -162,7 +405,7 @@ public class WorkingList {
 
         Collections.sort(lines);
         String data = join(lines);
-        String sha = sha1(data);
+        String sha = Hashing.hash(data);
         writeObj(sha, data);
         return sha;
     }
@@ -283,38 +526,6 @@ public class WorkingList {
     }
 
     private void writeObj(String sha, String data) throws Exception {
-        File out = new File("git" + File.separator + "objects", sha);
-        if (!out.exists()) {
-            FileWriter w = new FileWriter(out, false);
-            w.write(data);
-            w.flush();
-            w.close();
-        }
-    }
-
-    private String sha1(String s) {
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-1 not available");
-        }
-        byte[] dig = md.digest(s.getBytes(StandardCharsets.UTF_8));
-        return toHex(dig);
-    }
-
-    private String toHex(byte[] b) {
-        StringBuilder sb = new StringBuilder(b.length * 2);
-        int i = 0;
-        while (i < b.length) {
-            int v = b[i] & 0xff;
-            String h = Integer.toHexString(v);
-            if (h.length() == 1) {
-                sb.append('0');
-            }
-            sb.append(h);
-            i = i + 1;
-        }
-        return sb.toString();
+        ObjectStores.get().put(sha, data.getBytes(StandardCharsets.UTF_8));
     }
 }
@@ -2,6 +2,9 @@ import java.io.File;
 import java.io.FileWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
 
 public class WorkingListTester {
     public static void main(String[] args) {
@@ -41,11 +44,145 @@ public class WorkingListTester {
             System.out.println("Root tree: " + root);
             System.out.println("Contents:");
             System.out.println(readObj(root));
+
+            // compare the one-pass builder with the original one
+            boolean same = root.equals(wl.buildLegacy());
+            same = same && checkSame(wl, new String[] {});
+            same = same && checkSame(wl, new String[] { "top.txt" });
+            same = same && checkSame(wl, new String[] { "a/b/c/deep.txt" });
+            same = same && checkSame(wl, new String[] { "a/x.txt", "a.txt", "a-b/y.txt", "a0/z.txt", "a/b/w.txt" });
+            Random r = new Random(42);
+            int round = 0;
+            while (round < 20) {
+                same = same && checkSame(wl, randomPaths(r));
+                round = round + 1;
+            }
+            if (same == true) {
+                System.out.println("One-pass build matches original: PASS");
+            } else {
+                System.out.println("One-pass build matches original: FAIL");
+            }
+
+            // rebuild after changing one file through Index
+            File f4 = new File("proj/src/Main.txt");
+            write(f4, "main\n");
+            new File("git/index.tree").delete();
+            Index index = new Index();
+            index.clearIndex();
+            ArrayList<String> staged = new ArrayList<String>();
+            staged.add(f1.getPath());
+            staged.add(f2.getPath());
+            staged.add(f3.getPath());
+            staged.add(f4.getPath());
+            index.addAll(staged);
+            wl.build();
+            write(f2, "hello again\n");
+            index.add(f2.getPath());
+            CacheTree cache = CacheTree.load();
+            boolean incremental = cache.shaOf("proj/src") != null && cache.shaOf("proj/docs") == null;
+            String quick = wl.build();
+            new File("git/index.tree").delete();
+            String full = wl.build();
+            incremental = incremental && quick.equals(full) && quick.equals(wl.buildLegacy());
+            if (incremental == true) {
+                System.out.println("Incremental build matches full build: PASS");
+            } else {
+                System.out.println("Incremental build matches full build: FAIL");
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    private static boolean checkSame(WorkingList wl, String[] paths) throws Exception {
+        FileWriter w = new FileWriter(new File("git/index"), false);
+        int i = 0;
+        while (i < paths.length) {
+            String sha = Integer.toHexString(paths[i].hashCode());
+            while (sha.length() < 40) {
+                sha = "0" + sha;
+            }
+            w.write(sha + " " + paths[i]);
+            if (i < paths.length - 1) {
+                w.write("\n");
+            }
+            i = i + 1;
+        }
+        w.close();
+
+        File objects = new File("git/objects");
+        deleteChildren(objects);
+        String fast = wl.build();
+        ArrayList<String> fastObjects = listObjects(objects);
+        deleteChildren(objects);
+        String slow = wl.buildLegacy();
+        ArrayList<String> slowObjects = listObjects(objects);
+        if (!fast.equals(slow)) {
+            return false;
+        }
+        return fastObjects.equals(slowObjects);
+    }
+
+    private static String[] randomPaths(Random r) {
+        String[] names = { "a", "b", "ab", "a.b", "a-b", "z" };
+        int n = 1 + r.nextInt(30);
+        ArrayList<String> out = new ArrayList<String>();
+        int i = 0;
+        while (i < n) {
+            int depth = r.nextInt(4);
+            String p = "";
+            int d = 0;
+            while (d < depth) {
+                p = p + names[r.nextInt(names.length)] + "/";
+                d = d + 1;
+            }
+            p = p + "f" + r.nextInt(5) + ".txt";
+            if (!out.contains(p)) {
+                out.add(p);
+            }
+            i = i + 1;
+        }
+        return out.toArray(new String[0]);
+    }
+
+    // Object names in either layout, sorted
+    private static ArrayList<String> listObjects(File objects) {
+        ArrayList<String> out = new ArrayList<String>();
+        File[] kids = objects.listFiles();
+        if (kids != null) {
+            int i = 0;
+            while (i < kids.length) {
+                if (kids[i].isDirectory()) {
+                    String[] names = kids[i].list();
+                    int j = 0;
+                    while (j < names.length) {
+                        out.add(kids[i].getName() + names[j]);
+                        j = j + 1;
+                    }
+                } else {
+                    out.add(kids[i].getName());
+                }
+                i = i + 1;
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private static void deleteChildren(File dir) {
+        File[] kids = dir.listFiles();
+        if (kids != null) {
+            int i = 0;
+            while (i < kids.length) {
+                if (kids[i].isDirectory()) {
+                    deleteChildren(kids[i]);
+                }
+                kids[i].delete();
+                i = i + 1;
+            }
+        }
+    }
+
     private static void write(File f, String s) throws Exception {
         f.getParentFile().mkdirs();
         FileWriter w = new FileWriter(f, false);
@@ -54,7 +191,7 @@ public class WorkingListTester {
     }
 
     private static String readObj(String sha) throws Exception {
-        File obj = new File("git/objects", sha);
+        File obj = ObjectPath.find(sha);
         byte[] b = Files.readAllBytes(obj.toPath());
         return new String(b, StandardCharsets.UTF_8);
     }